@@ -0,0 +1,277 @@
+/*
+   Android FreeRDP JNI Wrapper (minimal for MstscClient)
+   This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+*/
+package com.freerdp.freerdpcore.services;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Session quality settings that trade image fidelity for bandwidth, turned into FreeRDP command
+ * line arguments by {@link LibFreeRDP#setConnectionInfoFromParams}. Instances are immutable; use
+ * {@link Builder}, or {@link #defaults()} for the settings used before profiles existed. Options
+ * left unset (null) emit no argument, so the native library's own default applies.
+ */
+public final class ConnectionProfile {
+
+    /** Codec requested for the graphics pipeline (/gfx). */
+    public enum GfxCodec {
+        /** Let client and server negotiate. */
+        AUTO,
+        /** H.264 4:2:0; falls back to RFX when the native build lacks H.264. */
+        AVC420,
+        /** H.264 4:4:4 for sharp text; falls back to RFX when the native build lacks H.264. */
+        AVC444,
+        REMOTEFX,
+        /** RemoteFX progressive: a coarse image first, refined over later frames. */
+        PROGRESSIVE
+    }
+
+    /** Connection type announced to the server (/network). */
+    public enum NetworkType {
+        AUTO("auto"), LAN("lan"), BROADBAND_HIGH("broadband-high"), BROADBAND_LOW("broadband-low"), WAN("wan"), MODEM("modem");
+
+        final String argument;
+
+        NetworkType(String argument) {
+            this.argument = argument;
+        }
+    }
+
+    public final int colorDepth;
+    public final GfxCodec codec;
+    public final NetworkType network;
+    public final Boolean bitmapCache;
+    public final Boolean glyphCache;
+    public final Boolean offscreenCache;
+    /** Use the reduced graphics pipeline cache; lowers client memory at the cost of more retransmitted tiles. */
+    public final boolean gfxSmallCache;
+    /**
+     * File the bitmap cache is loaded from at connect and saved to at disconnect, or null to start
+     * every session with cold caches. Ignored while the bitmap cache is disabled or the file's
+     * directory does not exist.
+     */
+    public final String persistentCacheFile;
+    /** Bulk compression on or off. */
+    public final Boolean compression;
+    /**
+     * Bulk compression algorithm: 0 = RDP 4.0 (8K history), 1 = RDP 5.0 (64K), 2 = RDP 6.0. This
+     * picks the compressor both sides use, not a bandwidth/CPU dial; the server may still choose
+     * an older one.
+     */
+    public final Integer compressionLevel;
+    public final boolean wallpaper;
+    public final boolean themes;
+    public final Boolean fontSmoothing;
+    public final Boolean windowDrag;
+    public final Boolean menuAnimations;
+
+    private ConnectionProfile(Builder b) {
+        colorDepth = b.colorDepth;
+        codec = b.codec;
+        network = b.network;
+        bitmapCache = b.bitmapCache;
+        glyphCache = b.glyphCache;
+        offscreenCache = b.offscreenCache;
+        gfxSmallCache = b.gfxSmallCache;
+        persistentCacheFile = b.persistentCacheFile;
+        compression = b.compression;
+        compressionLevel = b.compressionLevel;
+        wallpaper = b.wallpaper;
+        themes = b.themes;
+        fontSmoothing = b.fontSmoothing;
+        windowDrag = b.windowDrag;
+        menuAnimations = b.menuAnimations;
+    }
+
+    /**
+     * The argument set used before profiles were introduced, emitted unchanged:
+     * /bpp:32 /gfx /network:auto -wallpaper -themes.
+     */
+    public static ConnectionProfile defaults() {
+        return new Builder().build();
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Appends the profile in FreeRDP 3 syntax. The bundled library is built without the legacy
+     * command line, so options such as +bitmap-cache or +gfx-progressive would fail the parse;
+     * caches go into /cache and codec flags into /gfx.
+     */
+    void appendArguments(List<String> args, boolean h264) {
+        args.add("/bpp:" + colorDepth);
+        GfxCodec c = codec;
+        if (!h264 && (c == GfxCodec.AVC420 || c == GfxCodec.AVC444)) {
+            c = GfxCodec.REMOTEFX;
+        }
+        String gfx;
+        switch (c) {
+            case AVC420:
+                gfx = "AVC420";
+                break;
+            case AVC444:
+                gfx = "AVC444";
+                break;
+            case REMOTEFX:
+                gfx = "RFX";
+                break;
+            case PROGRESSIVE:
+                gfx = "RFX,progressive";
+                break;
+            default:
+                gfx = null;
+                break;
+        }
+        if (gfxSmallCache) gfx = gfx == null ? "small-cache" : gfx + ",small-cache";
+        args.add(gfx == null ? "/gfx" : "/gfx:" + gfx);
+        args.add("/network:" + network.argument);
+        StringBuilder cache = new StringBuilder();
+        appendCacheOption(cache, "bitmap", bitmapCache);
+        appendCacheOption(cache, "glyph", glyphCache);
+        appendCacheOption(cache, "offscreen", offscreenCache);
+        if (!Boolean.FALSE.equals(bitmapCache) && persistentCacheFile != null) {
+            // native only opens the file; a missing directory would fail the whole connection
+            File parent = new File(persistentCacheFile).getParentFile();
+            if (parent != null && parent.isDirectory()) {
+                if (cache.length() > 0) cache.append(',');
+                cache.append("persist,persist-file:").append(persistentCacheFile);
+            }
+        }
+        if (cache.length() > 0) args.add("/cache:" + cache);
+        appendSwitch(args, "compression", compression);
+        if (compressionLevel != null && !Boolean.FALSE.equals(compression)) {
+            args.add("/compression-level:" + compressionLevel);
+        }
+        appendSwitch(args, "wallpaper", wallpaper);
+        appendSwitch(args, "themes", themes);
+        appendSwitch(args, "fonts", fontSmoothing);
+        appendSwitch(args, "window-drag", windowDrag);
+        appendSwitch(args, "menu-anims", menuAnimations);
+    }
+
+    private static void appendSwitch(List<String> args, String name, Boolean enabled) {
+        if (enabled != null) args.add((enabled ? "+" : "-") + name);
+    }
+
+    private static void appendCacheOption(StringBuilder cache, String name, Boolean enabled) {
+        if (enabled == null) return;
+        if (cache.length() > 0) cache.append(',');
+        cache.append(name).append(enabled ? ":on" : ":off");
+    }
+
+    public static final class Builder {
+        private int colorDepth = 32;
+        private GfxCodec codec = GfxCodec.AUTO;
+        private NetworkType network = NetworkType.AUTO;
+        private Boolean bitmapCache;
+        private Boolean glyphCache;
+        private Boolean offscreenCache;
+        private boolean gfxSmallCache = false;
+        private String persistentCacheFile;
+        private Boolean compression;
+        private Integer compressionLevel;
+        private boolean wallpaper = false;
+        private boolean themes = false;
+        private Boolean fontSmoothing;
+        private Boolean windowDrag;
+        private Boolean menuAnimations;
+
+        public Builder() {
+        }
+
+        private Builder(ConnectionProfile p) {
+            colorDepth = p.colorDepth;
+            codec = p.codec;
+            network = p.network;
+            bitmapCache = p.bitmapCache;
+            glyphCache = p.glyphCache;
+            offscreenCache = p.offscreenCache;
+            gfxSmallCache = p.gfxSmallCache;
+            persistentCacheFile = p.persistentCacheFile;
+            compression = p.compression;
+            compressionLevel = p.compressionLevel;
+            wallpaper = p.wallpaper;
+            themes = p.themes;
+            fontSmoothing = p.fontSmoothing;
+            windowDrag = p.windowDrag;
+            menuAnimations = p.menuAnimations;
+        }
+
+        /**
+         * One of 32, 24, 16 or 15. Only lowers bandwidth on the legacy bitmap path: FreeRDP
+         * negotiates 32 bpp whenever the graphics pipeline (/gfx) is on, which this profile always
+         * enables, so reduce bandwidth through the codec and {@link #network} instead.
+         */
+        public Builder colorDepth(int bpp) {
+            if (bpp != 32 && bpp != 24 && bpp != 16 && bpp != 15) {
+                throw new IllegalArgumentException("unsupported color depth " + bpp);
+            }
+            colorDepth = bpp;
+            return this;
+        }
+
+        public Builder codec(GfxCodec codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        public Builder network(NetworkType network) {
+            this.network = network;
+            return this;
+        }
+
+        public Builder caches(boolean bitmap, boolean glyph, boolean offscreen) {
+            bitmapCache = bitmap;
+            glyphCache = glyph;
+            offscreenCache = offscreen;
+            return this;
+        }
+
+        public Builder gfxSmallCache(boolean enabled) {
+            gfxSmallCache = enabled;
+            return this;
+        }
+
+        /** Absolute path of the persistent bitmap cache file, or null to disable it. */
+        public Builder persistentCache(String file) {
+            persistentCacheFile = file;
+            return this;
+        }
+
+        public Builder compression(boolean enabled) {
+            compression = enabled;
+            return this;
+        }
+
+        /**
+         * Bulk compression algorithm, 0 (RDP 4.0), 1 (RDP 5.0) or 2 (RDP 6.0), the values
+         * /compression-level accepts. Higher is not "more" compression; leave unset to keep the
+         * native default.
+         */
+        public Builder compressionLevel(int level) {
+            if (level < 0 || level > 2) {
+                throw new IllegalArgumentException("compression level out of range: " + level);
+            }
+            compressionLevel = level;
+            return this;
+        }
+
+        public Builder visualEffects(boolean wallpaper, boolean themes, boolean fontSmoothing,
+                boolean windowDrag, boolean menuAnimations) {
+            this.wallpaper = wallpaper;
+            this.themes = themes;
+            this.fontSmoothing = fontSmoothing;
+            this.windowDrag = windowDrag;
+            this.menuAnimations = menuAnimations;
+            return this;
+        }
+
+        public ConnectionProfile build() {
+            return new ConnectionProfile(this);
+        }
+    }
+}
@@ -13,20 +13,28 @@ import com.freerdp.freerdpcore.application.GlobalApp;
 import com.freerdp.freerdpcore.application.SessionState;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class LibFreeRDP {
 
     private static final String TAG = "LibFreeRDP";
+    /** Auto-reconnect attempts (about one per second) before the session is reported as disconnected. */
+    private static final int AUTO_RECONNECT_MAX_RETRIES = 10;
     private static EventListener listener;
+    /** Connection lifecycle listeners keyed by native instance; take precedence over the global listener. */
+    private static final Map<Long, EventListener> sInstanceListeners = new ConcurrentHashMap<>();
     private static boolean mHasH264 = false;
     private static boolean sLoaded = false;
 
-    private static final Map<Long, Boolean> mInstanceState = new HashMap<>();
+    /** Lifecycle of every native instance between {@link #newInstance} and the end of {@link #freeInstance}. */
+    private static final Map<Long, Instance> sInstances = new ConcurrentHashMap<>();
 
     static {
         try {
@@ -83,78 +91,182 @@ public class LibFreeRDP {
     private static native boolean freerdp_send_unicodekey_event(long inst, int keycode, boolean down);
     private static native String freerdp_get_last_error_string(long inst);
 
+    /**
+     * Global fallback listener for instances without their own registration.
+     * @deprecated a second session replaces the first one's callbacks; use
+     * {@link #registerEventListener(long, EventListener)} instead.
+     */
+    @Deprecated
     public static void setEventListener(EventListener l) {
         listener = l;
     }
 
+    /**
+     * Routes the connection lifecycle callbacks of one instance to l. Register right after
+     * {@link #newInstance(Context)} so OnPreConnect is not missed.
+     */
+    public static void registerEventListener(long inst, EventListener l) {
+        sInstanceListeners.put(inst, l);
+    }
+
+    /** Stops dispatching callbacks of inst to whatever listener is registered for it. */
+    public static void unregisterEventListener(long inst) {
+        sInstanceListeners.remove(inst);
+    }
+
+    /**
+     * Stops dispatching callbacks of inst, but only if l is still the registered listener. Call
+     * before {@link #freeInstance}: native addresses are reused, and a later instance at the same
+     * address may already have registered its own listener.
+     */
+    public static void unregisterEventListener(long inst, EventListener l) {
+        sInstanceListeners.remove(inst, l);
+    }
+
+    private static EventListener listenerFor(long inst) {
+        EventListener l = sInstanceListeners.get(inst);
+        return l != null ? l : listener;
+    }
+
     public static long newInstance(Context context) {
-        return freerdp_new(context);
+        long inst = freerdp_new(context);
+        if (inst != 0) sInstances.put(inst, new Instance());
+        return inst;
     }
 
-    public static void freeInstance(long inst) {
-        synchronized (mInstanceState) {
-            if (Boolean.TRUE.equals(mInstanceState.get(inst))) {
-                freerdp_disconnect(inst);
-            }
-            while (Boolean.TRUE.equals(mInstanceState.get(inst))) {
-                try {
-                    mInstanceState.wait();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return;
-                }
-            }
+    /** Current lifecycle state of inst; unknown or already freed instances report FREED. */
+    public static InstanceState getInstanceState(long inst) {
+        Instance i = sInstances.get(inst);
+        return i != null ? i.state.get() : InstanceState.FREED;
+    }
+
+    /**
+     * Completes with true once inst is connected, or with false if the connection fails or the
+     * session ends first. Never blocks; unknown instances yield an already completed false.
+     */
+    public static CompletableFuture<Boolean> whenConnected(long inst) {
+        Instance i = sInstances.get(inst);
+        // A dependent stage: cancelling it (e.g. on a caller's timeout) must not complete the shared future
+        return i != null ? i.connected.thenApply(b -> b) : CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Completes once the session thread of inst has returned from {@link #connect}, whether the
+     * session was ended locally, by the server or by a lost connection. Unknown instances yield an
+     * already completed future.
+     */
+    public static CompletableFuture<Void> whenTerminated(long inst) {
+        Instance i = sInstances.get(inst);
+        return i != null ? i.terminated.thenApply(v -> v) : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Disconnects inst if needed and releases it once its session thread has returned from
+     * {@link #connect}. Returns immediately; the future completes after the native free, on the
+     * thread that ended the session (or the caller if the instance never connected). inst is
+     * forgotten before the native free, since the allocator may hand the same address to the next
+     * {@link #newInstance}.
+     */
+    public static CompletableFuture<Void> freeInstance(long inst) {
+        Instance i = sInstances.get(inst);
+        if (i == null) return CompletableFuture.completedFuture(null);
+        if (!i.freeRequested.compareAndSet(false, true)) return i.freed.thenApply(v -> v);
+        if (i.state.compareAndSet(InstanceState.NEW, InstanceState.DISCONNECTING)) {
+            i.connected.complete(false);
+            i.terminated.complete(null);
+        } else {
+            disconnect(inst);
         }
-        freerdp_free(inst);
+        i.terminated.thenRun(() -> {
+            synchronized (i) {
+                sInstances.remove(inst, i);
+                freerdp_free(inst);
+                i.state.set(InstanceState.FREED);
+            }
+            i.freed.complete(null);
+        });
+        return i.freed.thenApply(v -> v);
     }
 
+    /**
+     * Runs the session of inst on the calling thread until it ends; call from a dedicated thread
+     * and observe the outcome through {@link #whenConnected(long)}. Returns false without touching
+     * the native instance if inst is unknown, has already been connected, or is being freed.
+     */
     public static boolean connect(long inst) {
-        synchronized (mInstanceState) {
-            if (Boolean.TRUE.equals(mInstanceState.get(inst))) {
-                throw new RuntimeException("instance already connected");
-            }
+        Instance i = sInstances.get(inst);
+        if (i == null || !i.state.compareAndSet(InstanceState.NEW, InstanceState.CONNECTING)) {
+            Log.w(TAG, "connect: instance " + inst + " is " + (i != null ? i.state.get() : InstanceState.FREED));
+            return false;
+        }
+        try {
+            return freerdp_connect(inst);
+        } finally {
+            i.advanceTo(InstanceState.DISCONNECTING);
+            i.connected.complete(false);
+            i.terminated.complete(null);
         }
-        return freerdp_connect(inst);
     }
 
+    /** Asks a connecting or connected instance to end its session; a no-op in any other state. */
     public static boolean disconnect(long inst) {
-        synchronized (mInstanceState) {
-            if (Boolean.TRUE.equals(mInstanceState.get(inst))) {
+        Instance i = sInstances.get(inst);
+        if (i == null) return true;
+        InstanceState s = i.state.get();
+        while (s == InstanceState.CONNECTING || s == InstanceState.CONNECTED) {
+            if (i.state.compareAndSet(s, InstanceState.DISCONNECTING)) {
                 return freerdp_disconnect(inst);
             }
+            s = i.state.get();
         }
         return true;
     }
 
     /**
      * Set connection from host/port/user/domain/password (no BookmarkBase).
+     * keyboard is the value of the /kbd option (e.g. "layout:0x411,type:7,unicode:on");
+     * null keeps the default layout with Unicode input enabled.
+     * address is an already resolved IP for host, or null to let FreeRDP resolve host itself;
+     * when given, host is still sent as /server-name: so TLS and NLA target the original name.
+     * profile selects color depth, codec, caches, compression and visual effects;
+     * null uses {@link ConnectionProfile#defaults()}.
      */
     public static boolean setConnectionInfoFromParams(Context context, long inst,
-            String host, int port, String username, String domain, String password,
-            int width, int height) {
+            String host, String address, int port, String username, String domain, String password,
+            int width, int height, String keyboard, ConnectionProfile profile) {
         ArrayList<String> args = new ArrayList<>();
         args.add(TAG);
         args.add("/gdi:sw");
-        args.add("/v:" + host);
+        if (address != null && !address.isEmpty() && !address.equals(host)) {
+            args.add("/v:" + address);
+            args.add("/server-name:" + host);
+        } else {
+            args.add("/v:" + host);
+        }
         args.add("/port:" + port);
         if (username != null && !username.isEmpty()) args.add("/u:" + username);
         if (domain != null && !domain.isEmpty()) args.add("/d:" + domain);
         if (password != null && !password.isEmpty()) args.add("/p:" + password);
         args.add(String.format("/size:%dx%d", width, height));
-        args.add("/bpp:32");
         args.add("/sec:nla");
-        args.add("/gfx");
-        args.add("/network:auto");
-        args.add("-wallpaper");
-        args.add("-themes");
+        (profile != null ? profile : ConnectionProfile.defaults()).appendArguments(args, mHasH264);
+        // Lost transports are re-established with the server's auto-reconnect cookie instead of a new logon
+        args.add("+auto-reconnect");
+        args.add("/auto-reconnect-max-retries:" + AUTO_RECONNECT_MAX_RETRIES);
         args.add("/clipboard");
-        args.add("/kbd:unicode:on");
+        args.add("/kbd:" + (keyboard != null && !keyboard.isEmpty() ? keyboard : "unicode:on"));
         args.add("/cert:ignore");
         args.add("/log-level:WARN");
         String[] arrayArgs = args.toArray(new String[0]);
         return freerdp_parse_arguments(inst, arrayArgs);
     }
 
+    /**
+     * Copies one rectangle of the native GDI buffer into bitmap. There is deliberately no batched
+     * variant: the bundled native glue exports only this single-rectangle entry point and invokes
+     * OnGraphicsUpdate once per rectangle, so a multi-rectangle copy under one bitmap lock would
+     * need a rebuilt libfreerdp-android, whose sources are not part of this tree.
+     */
     public static boolean updateGraphics(long inst, Bitmap bitmap, int x, int y, int width, int height) {
         return freerdp_update_graphics(inst, bitmap, x, y, width, height);
     }
@@ -171,8 +283,51 @@ public class LibFreeRDP {
         return freerdp_send_unicodekey_event(inst, keycode, down);
     }
 
+    /**
+     * Sends a string as Unicode keyboard events, one down/up pair per UTF-16 code unit. This is
+     * not a batch: the native library only exports send_unicodekey_event, so every event is its
+     * own JNI call and input PDU. A surrogate pair is sent back to back; unpaired surrogates are
+     * skipped. Stops at the first failed event.
+     */
+    public static boolean sendUnicodeText(long inst, String text) {
+        final int len = text.length();
+        for (int i = 0; i < len; i++) {
+            final char c = text.charAt(i);
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    if (!sendUnicodeChar(inst, c) || !sendUnicodeChar(inst, text.charAt(i + 1))) {
+                        return false;
+                    }
+                    i++;
+                }
+                continue;
+            }
+            if (Character.isLowSurrogate(c)) {
+                continue;
+            }
+            if (!sendUnicodeChar(inst, c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sendUnicodeChar(long inst, char c) {
+        return freerdp_send_unicodekey_event(inst, c, true)
+                && freerdp_send_unicodekey_event(inst, c, false);
+    }
+
+    /**
+     * Last error of inst, or null once inst has been freed. Reads under the instance's monitor,
+     * which the native free also holds, so the instance cannot be freed during the call.
+     */
     public static String getLastErrorString(long inst) {
-        return freerdp_get_last_error_string(inst);
+        Instance i = sInstances.get(inst);
+        if (i == null) return null;
+        synchronized (i) {
+            if (i.state.get() == InstanceState.FREED) return null;
+            return freerdp_get_last_error_string(inst);
+        }
     }
 
     public static String getVersion() {
@@ -181,34 +336,42 @@ public class LibFreeRDP {
 
     // --- Callbacks from native (must keep names for JNI) ---
     private static void OnConnectionSuccess(long inst) {
-        if (listener != null) listener.OnConnectionSuccess(inst);
-        synchronized (mInstanceState) {
-            mInstanceState.put(inst, true);
-            mInstanceState.notifyAll();
+        EventListener l = listenerFor(inst);
+        if (l != null) l.OnConnectionSuccess(inst);
+        Instance i = sInstances.get(inst);
+        if (i != null) {
+            i.state.compareAndSet(InstanceState.CONNECTING, InstanceState.CONNECTED);
+            i.connected.complete(true);
         }
     }
 
     private static void OnConnectionFailure(long inst) {
-        if (listener != null) listener.OnConnectionFailure(inst);
-        synchronized (mInstanceState) {
-            mInstanceState.remove(inst);
-            mInstanceState.notifyAll();
+        EventListener l = listenerFor(inst);
+        if (l != null) l.OnConnectionFailure(inst);
+        Instance i = sInstances.get(inst);
+        if (i != null) {
+            i.advanceTo(InstanceState.DISCONNECTING);
+            i.connected.complete(false);
         }
     }
 
     private static void OnPreConnect(long inst) {
-        if (listener != null) listener.OnPreConnect(inst);
+        EventListener l = listenerFor(inst);
+        if (l != null) l.OnPreConnect(inst);
     }
 
     private static void OnDisconnecting(long inst) {
-        if (listener != null) listener.OnDisconnecting(inst);
+        EventListener l = listenerFor(inst);
+        if (l != null) l.OnDisconnecting(inst);
     }
 
     private static void OnDisconnected(long inst) {
-        if (listener != null) listener.OnDisconnected(inst);
-        synchronized (mInstanceState) {
-            mInstanceState.remove(inst);
-            mInstanceState.notifyAll();
+        EventListener l = listenerFor(inst);
+        if (l != null) l.OnDisconnected(inst);
+        Instance i = sInstances.get(inst);
+        if (i != null) {
+            i.advanceTo(InstanceState.DISCONNECTING);
+            i.connected.complete(false);
         }
     }
 
@@ -272,6 +435,28 @@ public class LibFreeRDP {
         }
     }
 
+    /**
+     * Lifecycle of a native instance. States only move forward; DISCONNECTING covers both a session
+     * that is ending and one whose thread has returned but that has not been freed yet.
+     */
+    public enum InstanceState { NEW, CONNECTING, CONNECTED, DISCONNECTING, FREED }
+
+    private static final class Instance {
+        final AtomicReference<InstanceState> state = new AtomicReference<>(InstanceState.NEW);
+        final AtomicBoolean freeRequested = new AtomicBoolean();
+        final CompletableFuture<Boolean> connected = new CompletableFuture<>();
+        /** Completes when the session thread has left {@link #connect}, or at free if it never connected. */
+        final CompletableFuture<Void> terminated = new CompletableFuture<>();
+        final CompletableFuture<Void> freed = new CompletableFuture<>();
+
+        void advanceTo(InstanceState target) {
+            InstanceState s;
+            while ((s = state.get()).ordinal() < target.ordinal()) {
+                if (state.compareAndSet(s, target)) return;
+            }
+        }
+    }
+
     public interface EventListener {
         void OnPreConnect(long instance);
         void OnConnectionSuccess(long instance);
@@ -1,9 +1,24 @@
 package com.mstsc.client
 
 import android.app.Application
+import android.content.ComponentCallbacks2
+import com.mstsc.client.ui.rdp.BitmapPool
+import com.mstsc.client.ui.rdp.NativeLibraryLoader
+import com.mstsc.client.ui.rdp.RdpSessionManager
+import com.mstsc.client.ui.rdp.RdpSessionService
 
 class MstscApplication : Application() {
     override fun onCreate() {
         super.onCreate()
+        // 后台预加载 FreeRDP 原生库，使首次连接不必在主线程等待 .so 加载
+        NativeLibraryLoader.preload()
+        // 有存活会话时以前台服务保活进程，切换应用或内存紧张时会话不被回收
+        RdpSessionManager.onSessionCountChanged = { RdpSessionService.sync(this, it) }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        // 退到后台或内存紧张时释放池中闲置的帧缓冲 Bitmap
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) BitmapPool.clear()
     }
 }
@@ -18,4 +18,6 @@ class DeviceRepository(private val dao: RdpDeviceDao) {
     suspend fun update(device: RdpDevice) = dao.update(device)
 
     suspend fun delete(device: RdpDevice) = dao.delete(device)
+
+    suspend fun markConnected(device: RdpDevice) = dao.markConnected(device.id, System.currentTimeMillis())
 }
@@ -1,5 +1,6 @@
 package com.mstsc.client.data
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.PrimaryKey
 
@@ -18,7 +19,16 @@ data class RdpDevice(
     val password: String,
     /** 显示名称（可选，列表展示用） */
     val displayName: String? = null,
-    val createdAt: Long = System.currentTimeMillis()
+    val createdAt: Long = System.currentTimeMillis(),
+    /** 键盘布局配置名（KeyboardLayoutProfile 枚举名），默认 US */
+    @ColumnInfo(defaultValue = "US")
+    val keyboardLayout: String = "US",
+    /** 最近一次发起连接的时间（毫秒），0 表示从未连接；设备列表据此预热连接 */
+    @ColumnInfo(defaultValue = "0")
+    val lastConnectedAt: Long = 0L,
+    /** 连接档位（ConnectionPreset 枚举名），默认 BROADBAND */
+    @ColumnInfo(defaultValue = "BROADBAND")
+    val connectionPreset: String = "BROADBAND"
 ) {
     /** 解析 host:port，公网直连用 */
     fun host(): String {
@@ -27,4 +27,7 @@ interface RdpDeviceDao {
 
     @Delete
     suspend fun delete(device: RdpDevice)
+
+    @Query("UPDATE rdp_devices SET lastConnectedAt = :at WHERE id = :id")
+    suspend fun markConnected(id: Long, at: Long)
 }
@@ -1,6 +1,7 @@
 package com.mstsc.client.ui
 
 import android.view.LayoutInflater
+import android.view.MotionEvent
 import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
@@ -13,6 +14,8 @@ import com.mstsc.client.databinding.ItemDeviceBinding
  */
 class DeviceListAdapter(
     private val onConnect: (RdpDevice) -> Unit,
+    /** 按下连接按钮（尚未抬起）时回调，用于提前预热连接 */
+    private val onConnectPressed: (RdpDevice) -> Unit,
     private val onEdit: (RdpDevice) -> Unit,
     private val onDelete: (RdpDevice) -> Unit
 ) : ListAdapter<RdpDevice, DeviceListAdapter.ViewHolder>(DiffCallback) {
@@ -31,6 +34,10 @@ class DeviceListAdapter(
             binding.tvDeviceId.text = device.deviceId
             binding.tvUsername.text = device.username
             binding.btnConnect.setOnClickListener { onConnect(device) }
+            binding.btnConnect.setOnTouchListener { _, event ->
+                if (event.actionMasked == MotionEvent.ACTION_DOWN) onConnectPressed(device)
+                false
+            }
             binding.btnEdit.setOnClickListener { onEdit(device) }
             binding.btnDelete.setOnClickListener { onDelete(device) }
         }
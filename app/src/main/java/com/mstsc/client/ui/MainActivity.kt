@@ -1,6 +1,9 @@
 package com.mstsc.client.ui
 
+import android.Manifest
 import android.content.Intent
+import android.content.pm.PackageManager
+import android.os.Build
 import android.os.Bundle
 import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
@@ -13,9 +16,15 @@ import com.mstsc.client.data.DeviceRepository
 import com.mstsc.client.data.RdpDevice
 import com.mstsc.client.databinding.ActivityMainBinding
 import com.mstsc.client.util.isValidDeviceId
+import com.mstsc.client.ui.rdp.ConnectionPreset
+import com.mstsc.client.ui.rdp.ConnectionPrewarmer
+import com.mstsc.client.ui.rdp.KeyboardLayoutProfile
+import com.mstsc.client.ui.rdp.PersistentCacheStore
 import com.mstsc.client.ui.rdp.RdpSessionActivity
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 /**
  * 主页面：仅一个主界面，核心模块为「设备管理列表」。
@@ -35,6 +44,7 @@ class MainActivity : AppCompatActivity() {
         repository = DeviceRepository(AppDatabase.getInstance(this).rdpDeviceDao())
         adapter = DeviceListAdapter(
             onConnect = { startRdpSession(it) },
+            onConnectPressed = { ConnectionPrewarmer.prewarm(it.host()) },
             onEdit = { showDeviceForm(it) },
             onDelete = { confirmDelete(it) }
         )
@@ -45,7 +55,10 @@ class MainActivity : AppCompatActivity() {
         binding.fabAdd.setOnClickListener { showDeviceForm(null) }
 
         lifecycleScope.launch {
-            repository.devicesFlow().collectLatest { adapter.submitList(it) }
+            repository.devicesFlow().collectLatest { devices ->
+                adapter.submitList(devices)
+                prewarmRecent(devices)
+            }
         }
     }
 
@@ -62,6 +75,24 @@ class MainActivity : AppCompatActivity() {
         val etUsername = dialogView.findViewById<com.google.android.material.textfield.TextInputEditText>(R.id.et_username)
         val tilPassword = dialogView.findViewById<com.google.android.material.textfield.TextInputLayout>(R.id.til_password)
         val etPassword = dialogView.findViewById<com.google.android.material.textfield.TextInputEditText>(R.id.et_password)
+        val actvKeyboard = dialogView.findViewById<android.widget.AutoCompleteTextView>(R.id.actv_keyboard_layout)
+
+        val layouts = KeyboardLayoutProfile.values()
+        var selectedLayout = KeyboardLayoutProfile.fromName(device?.keyboardLayout)
+        actvKeyboard.setAdapter(
+            android.widget.ArrayAdapter(this, android.R.layout.simple_list_item_1, layouts.map { getString(it.labelRes) })
+        )
+        actvKeyboard.setText(getString(selectedLayout.labelRes), false)
+        actvKeyboard.setOnItemClickListener { _, _, position, _ -> selectedLayout = layouts[position] }
+
+        val actvPreset = dialogView.findViewById<android.widget.AutoCompleteTextView>(R.id.actv_connection_preset)
+        val presets = ConnectionPreset.values()
+        var selectedPreset = ConnectionPreset.fromName(device?.connectionPreset)
+        actvPreset.setAdapter(
+            android.widget.ArrayAdapter(this, android.R.layout.simple_list_item_1, presets.map { getString(it.labelRes) })
+        )
+        actvPreset.setText(getString(selectedPreset.labelRes), false)
+        actvPreset.setOnItemClickListener { _, _, position, _ -> selectedPreset = presets[position] }
 
         device?.let {
             etDeviceId.setText(it.deviceId)
@@ -95,10 +126,26 @@ class MainActivity : AppCompatActivity() {
             lifecycleScope.launch {
                 try {
                     if (device == null) {
-                        repository.add(RdpDevice(deviceId = deviceId, username = username, password = password))
+                        repository.add(
+                            RdpDevice(
+                                deviceId = deviceId,
+                                username = username,
+                                password = password,
+                                keyboardLayout = selectedLayout.name,
+                                connectionPreset = selectedPreset.name
+                            )
+                        )
                         Toast.makeText(this@MainActivity, R.string.add_device, Toast.LENGTH_SHORT).show()
                     } else {
-                        repository.update(device.copy(deviceId = deviceId, username = username, password = password))
+                        repository.update(
+                            device.copy(
+                                deviceId = deviceId,
+                                username = username,
+                                password = password,
+                                keyboardLayout = selectedLayout.name,
+                                connectionPreset = selectedPreset.name
+                            )
+                        )
                         Toast.makeText(this@MainActivity, R.string.edit, Toast.LENGTH_SHORT).show()
                     }
                     dialog.dismiss()
@@ -116,6 +163,9 @@ class MainActivity : AppCompatActivity() {
             .setPositiveButton(R.string.yes) { _, _ ->
                 lifecycleScope.launch {
                     repository.delete(device)
+                    withContext(Dispatchers.IO) {
+                        PersistentCacheStore.delete(this@MainActivity, device.host(), device.port())
+                    }
                     Toast.makeText(this@MainActivity, R.string.delete, Toast.LENGTH_SHORT).show()
                 }
             }
@@ -123,15 +173,40 @@ class MainActivity : AppCompatActivity() {
             .show()
     }
 
+    /** 预解析最近连接过的几台设备，点击连接时可跳过 DNS 查询 */
+    private fun prewarmRecent(devices: List<RdpDevice>) {
+        devices.filter { it.lastConnectedAt > 0 }
+            .sortedByDescending { it.lastConnectedAt }
+            .take(PREWARM_RECENT_COUNT)
+            .forEach { ConnectionPrewarmer.prewarm(it.host()) }
+    }
+
     /**
      * 启动 RDP 会话：公网直连，参数与 mstsc 对齐。
      */
     private fun startRdpSession(device: RdpDevice) {
+        ConnectionPrewarmer.prewarm(device.host())
+        requestNotificationPermission()
+        lifecycleScope.launch { repository.markConnected(device) }
         val intent = Intent(this, RdpSessionActivity::class.java).apply {
             putExtra(RdpSessionActivity.EXTRA_DEVICE_ID, device.deviceId)
             putExtra(RdpSessionActivity.EXTRA_USERNAME, device.username)
             putExtra(RdpSessionActivity.EXTRA_PASSWORD, device.password)
+            putExtra(RdpSessionActivity.EXTRA_KEYBOARD_LAYOUT, device.keyboardLayout)
+            putExtra(RdpSessionActivity.EXTRA_CONNECTION_PRESET, device.connectionPreset)
         }
         startActivity(intent)
     }
+
+    /** 会话保活服务的常驻通知在 Android 13+ 需要通知权限；拒绝时服务照常运行，仅不显示通知 */
+    private fun requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) return
+        if (checkSelfPermission(Manifest.permission.POST_NOTIFICATIONS) == PackageManager.PERMISSION_GRANTED) return
+        requestPermissions(arrayOf(Manifest.permission.POST_NOTIFICATIONS), REQUEST_NOTIFICATIONS)
+    }
+
+    private companion object {
+        const val PREWARM_RECENT_COUNT = 3
+        const val REQUEST_NOTIFICATIONS = 1
+    }
 }
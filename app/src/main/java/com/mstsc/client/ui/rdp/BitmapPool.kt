@@ -0,0 +1,99 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.util.Log
+
+/**
+ * 进程内共享的帧缓冲 Bitmap 池：分辨率变化、重连时复用已有像素内存，避免反复分配数十 MB 的大 Bitmap。
+ *
+ * - 优先复用尺寸与格式完全一致的 Bitmap；
+ * - 其次用 [Bitmap.reconfigure] 复用容量足够的 Bitmap（取容量最小者，减少浪费）；
+ * - 池内总字节数超过 [maxBytes] 时按最久未使用淘汰并 recycle。
+ */
+internal object BitmapPool {
+    private const val TAG = "BitmapPool"
+    /** 默认预算：约可容纳两组 1080p 双缓冲或一组 4K 双缓冲 */
+    private const val DEFAULT_MAX_BYTES = 96L * 1024 * 1024
+
+    /** 按归还顺序排列，队首为最久未使用 */
+    private val entries = ArrayList<Bitmap>()
+    private var pooledBytes = 0L
+
+    var maxBytes: Long = DEFAULT_MAX_BYTES
+        @Synchronized set(value) {
+            field = value.coerceAtLeast(0L)
+            trimTo(field)
+        }
+
+    /** 取得一张 w x h、格式为 config 的可写 Bitmap，内容已清为黑色 */
+    @Synchronized
+    fun acquire(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val w = width.coerceAtLeast(1)
+        val h = height.coerceAtLeast(1)
+        for (i in entries.indices.reversed()) {
+            val b = entries[i]
+            if (b.width == w && b.height == h && b.config == config) {
+                take(i)
+                b.eraseColor(Color.BLACK)
+                return b
+            }
+        }
+        val needed = w.toLong() * h * bytesPerPixel(config)
+        var best = -1
+        for (i in entries.indices) {
+            val size = entries[i].allocationByteCount
+            if (size >= needed && (best < 0 || size < entries[best].allocationByteCount)) best = i
+        }
+        if (best >= 0) {
+            val b = take(best)
+            try {
+                b.reconfigure(w, h, config)
+                b.eraseColor(Color.BLACK)
+                return b
+            } catch (e: IllegalArgumentException) {
+                Log.w(TAG, "reconfigure failed, allocating new bitmap", e)
+                b.recycle()
+            }
+        }
+        return Bitmap.createBitmap(w, h, config)
+    }
+
+    /** 归还 Bitmap；调用方之后不得再读写该 Bitmap */
+    @Synchronized
+    fun release(bitmap: Bitmap) {
+        if (bitmap.isRecycled) return
+        if (!bitmap.isMutable || bitmap.allocationByteCount > maxBytes) {
+            bitmap.recycle()
+            return
+        }
+        entries.add(bitmap)
+        pooledBytes += bitmap.allocationByteCount
+        trimTo(maxBytes)
+    }
+
+    /** 释放池内全部 Bitmap（如系统内存紧张时） */
+    @Synchronized
+    fun clear() {
+        trimTo(0L)
+    }
+
+    private fun take(index: Int): Bitmap {
+        val b = entries.removeAt(index)
+        pooledBytes -= b.allocationByteCount
+        return b
+    }
+
+    private fun trimTo(limit: Long) {
+        while (pooledBytes > limit && entries.isNotEmpty()) {
+            take(0).recycle()
+        }
+    }
+
+    private fun bytesPerPixel(config: Bitmap.Config): Int = when (config) {
+        Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+        Bitmap.Config.ALPHA_8 -> 1
+        Bitmap.Config.RGBA_F16 -> 8
+        else -> 4
+    }
+}
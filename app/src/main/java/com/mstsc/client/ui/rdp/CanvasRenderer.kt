@@ -0,0 +1,84 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Rect
+import android.graphics.RectF
+import android.view.SurfaceHolder
+import kotlin.math.ceil
+import kotlin.math.floor
+
+/**
+ * 软件渲染：lockCanvas 仅锁定脏区域映射到视图后的范围，只采样并缩放这部分帧缓冲像素；
+ * 本地放大时锁定范围已裁剪到视图，视口外的帧缓冲像素不会被采样。
+ */
+internal class CanvasRenderer(private val holder: SurfaceHolder) : RemoteRenderer {
+
+    override fun drawFrame(
+        frame: FrontFrame,
+        damage: Rect?,
+        fullRepaint: Boolean,
+        dst: RectF,
+        surfaceWidth: Int,
+        surfaceHeight: Int
+    ): Boolean {
+        val surface = holder.surface
+        if (!surface.isValid) return true
+        val bmp = frame.bitmap
+        val lockRect = if (fullRepaint || damage == null) {
+            Rect(0, 0, surfaceWidth, surfaceHeight)
+        } else {
+            fbRectToView(damage, bmp, dst, surfaceWidth, surfaceHeight)
+        }
+        if (lockRect.isEmpty) return true
+        // lockCanvas 可能扩大 lockRect（如前一缓冲未保留时扩到整屏），之后按扩大后的区域完整重绘
+        val canvas = surface.lockCanvas(lockRect) ?: return true
+        try {
+            val sx = dst.width() / bmp.width
+            val sy = dst.height() / bmp.height
+            if (lockRect.left < dst.left || lockRect.top < dst.top ||
+                lockRect.right > dst.right || lockRect.bottom > dst.bottom
+            ) {
+                canvas.drawColor(Color.BLACK)
+            }
+            // 反算脏区域对应的帧缓冲像素，只采样这部分；多取 1px 以覆盖缩放取整误差，超出部分由画布裁剪
+            val src = Rect(
+                (floor((lockRect.left - dst.left) / sx).toInt() - 1).coerceAtLeast(0),
+                (floor((lockRect.top - dst.top) / sy).toInt() - 1).coerceAtLeast(0),
+                (ceil((lockRect.right - dst.left) / sx).toInt() + 1).coerceAtMost(bmp.width),
+                (ceil((lockRect.bottom - dst.top) / sy).toInt() + 1).coerceAtMost(bmp.height)
+            )
+            if (!src.isEmpty) {
+                val srcDst = RectF(
+                    dst.left + src.left * sx,
+                    dst.top + src.top * sy,
+                    dst.left + src.right * sx,
+                    dst.top + src.bottom * sy
+                )
+                canvas.drawBitmap(bmp, src, srcDst, null)
+            }
+            frame.endRead()
+        } finally {
+            surface.unlockCanvasAndPost(canvas)
+        }
+        return true
+    }
+
+    override fun invalidateContent() {}
+
+    override fun release() {}
+
+    /** 将帧缓冲坐标下的矩形映射为视图坐标（向外取整并外扩 1px），并裁剪到视图范围 */
+    private fun fbRectToView(r: Rect, bmp: Bitmap, dst: RectF, vw: Int, vh: Int): Rect {
+        val sx = dst.width() / bmp.width
+        val sy = dst.height() / bmp.height
+        val out = Rect(
+            floor(dst.left + r.left * sx).toInt() - 1,
+            floor(dst.top + r.top * sy).toInt() - 1,
+            ceil(dst.left + r.right * sx).toInt() + 1,
+            ceil(dst.top + r.bottom * sy).toInt() + 1
+        )
+        if (!out.intersect(0, 0, vw, vh)) out.setEmpty()
+        return out
+    }
+}
@@ -0,0 +1,59 @@
+package com.mstsc.client.ui.rdp
+
+import androidx.annotation.StringRes
+import com.freerdp.freerdpcore.services.ConnectionProfile
+import com.freerdp.freerdpcore.services.ConnectionProfile.GfxCodec
+import com.freerdp.freerdpcore.services.ConnectionProfile.NetworkType
+import com.mstsc.client.R
+
+/**
+ * 按带宽档位预设的连接配置，每台设备可选；用 [ConnectionProfile.Builder] 构造，决定色深、GFX 编解码、
+ * 缓存、压缩与视觉效果。BROADBAND 与引入档位前的固定参数一致，作为默认值。
+ */
+enum class ConnectionPreset(@StringRes val labelRes: Int) {
+    /** 局域网：带宽充足，AVC444 保证文字清晰，开启全部视觉效果，不压缩以省 CPU */
+    LAN(R.string.connection_preset_lan) {
+        override fun profile(): ConnectionProfile = ConnectionProfile.Builder()
+            .colorDepth(32)
+            .codec(GfxCodec.AVC444)
+            .network(NetworkType.LAN)
+            .caches(true, true, true)
+            .compression(false)
+            .visualEffects(true, true, true, true, true)
+            .build()
+    },
+    /** 宽带：服务端协商编解码，去掉壁纸与主题 */
+    BROADBAND(R.string.connection_preset_broadband) {
+        override fun profile(): ConnectionProfile = ConnectionProfile.defaults()
+    },
+    /**
+     * 移动网络（4G/5G）：AVC420 + 低带宽网络类型，关闭全部视觉效果。
+     * 不降色深：启用 GFX 时 FreeRDP 固定按 32 位协商，/bpp:16 不会省带宽，省带宽靠 H.264 与网络类型
+     */
+    MOBILE(R.string.connection_preset_mobile) {
+        override fun profile(): ConnectionProfile = ConnectionProfile.Builder()
+            .codec(GfxCodec.AVC420)
+            .network(NetworkType.BROADBAND_LOW)
+            .caches(true, true, true)
+            .visualEffects(false, false, false, false, false)
+            .build()
+    },
+    /** 卫星链路：高延迟，渐进式 RemoteFX 先出粗图再细化，缩小 GFX 缓存；同样不降色深 */
+    SATELLITE(R.string.connection_preset_satellite) {
+        override fun profile(): ConnectionProfile = ConnectionProfile.Builder()
+            .codec(GfxCodec.PROGRESSIVE)
+            .network(NetworkType.WAN)
+            .caches(true, true, true)
+            .gfxSmallCache(true)
+            .visualEffects(false, false, false, false, false)
+            .build()
+    };
+
+    abstract fun profile(): ConnectionProfile
+
+    companion object {
+        /** 按名称解析（数据库中保存枚举名），未知或为空时回退到 BROADBAND */
+        fun fromName(name: String?): ConnectionPreset =
+            values().firstOrNull { it.name == name } ?: BROADBAND
+    }
+}
@@ -0,0 +1,67 @@
+package com.mstsc.client.ui.rdp
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.withTimeoutOrNull
+import java.net.Inet4Address
+import java.net.InetAddress
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+
+/**
+ * 连接预热：设备列表在用户点击前（最近使用的设备、正在按下的连接按钮）提前解析主机名，
+ * 连接时直接把解析好的地址交给 FreeRDP，省去会话页创建后才开始的 DNS 查询。
+ *
+ * native 库自行建立 TCP/TLS，无法接收外部打开的 socket，因此只预热到地址解析为止。
+ */
+internal object ConnectionPrewarmer {
+    private const val TAG = "ConnectionPrewarmer"
+    /** 解析结果的有效期，过期后重新解析，避免地址变更后仍连旧地址 */
+    private const val TTL_MS = 60_000L
+    /** 连接时等待进行中的解析的上限，超时则交由 native 自行解析 */
+    private const val AWAIT_MS = 2_000L
+
+    private class Entry(val future: CompletableFuture<String?>, val startedAt: Long)
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val executor = Executors.newFixedThreadPool(2) { r ->
+        Thread(r, "RdpPrewarm").apply { isDaemon = true }
+    }
+
+    /** 开始解析 host（已有未过期的结果或正在解析时忽略）；可在主线程调用 */
+    fun prewarm(host: String) {
+        if (host.isBlank()) return
+        val now = SystemClock.elapsedRealtime()
+        entries.compute(host) { _, old ->
+            if (old != null && now - old.startedAt < TTL_MS) old
+            else Entry(CompletableFuture.supplyAsync({ resolve(host) }, executor), now)
+        }
+    }
+
+    /**
+     * 取得 host 的预解析地址（可直接用于 /v:）；未预热、已过期、解析失败或等待超时时返回 null，
+     * 调用方应退回使用主机名。
+     */
+    suspend fun awaitAddress(host: String): String? {
+        val entry = entries[host] ?: return null
+        if (SystemClock.elapsedRealtime() - entry.startedAt >= TTL_MS) return null
+        return withTimeoutOrNull(AWAIT_MS) { entry.future.await() }
+    }
+
+    private fun resolve(host: String): String? {
+        val startNs = System.nanoTime()
+        return try {
+            val all = InetAddress.getAllByName(host)
+            // 优先 IPv4；IPv6 需加方括号才能作为 /v: 的主机部分
+            val addr = all.firstOrNull { it is Inet4Address } ?: all.firstOrNull() ?: return null
+            val text = addr.hostAddress ?: return null
+            Log.i(TAG, "resolved $host in ${(System.nanoTime() - startNs) / 1_000_000}ms")
+            if (addr is Inet4Address) text else "[$text]"
+        } catch (e: Exception) {
+            Log.w(TAG, "resolve $host failed: ${e.message}")
+            null
+        }
+    }
+}
@@ -2,25 +2,33 @@ package com.mstsc.client.ui.rdp
 
 import android.content.Context
 import android.graphics.Bitmap
-import android.view.KeyEvent
+import android.util.Log
 import com.freerdp.freerdpcore.application.GlobalApp
 import com.freerdp.freerdpcore.application.SessionState
+import com.freerdp.freerdpcore.services.ConnectionProfile
 import com.freerdp.freerdpcore.services.LibFreeRDP
-import java.util.concurrent.CountDownLatch
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.ConcurrentLinkedDeque
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicReference
+import java.io.File
 import java.lang.StringBuilder
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.withTimeoutOrNull
 
 /**
  * RDP 引擎实现：通过 FreeRDP JNI 直连 Windows 远程桌面。
- * 连接结果通过 LibFreeRDP.EventListener 回调；画面通过 SessionState + UIEventListener 回写到 View。
+ * 连接结果通过按实例注册的 LibFreeRDP.EventListener 回调；画面通过 SessionState + UIEventListener 回写到 View；
+ * 鼠标键盘事件经 [InputEventQueue] 由发送线程异步调用 JNI。
  */
 internal class FreerdpEngine(
     private val context: Context,
-    private val view: RdpSurfaceView
+    initialView: RdpSurfaceView
 ) : RdpSurfaceView.RdpEngine {
     private companion object {
+        const val TAG = "FreerdpEngine"
+        const val CONNECT_TIMEOUT_MS = 30_000L
         const val PTRFLAGS_DOWN = 0x8000
         const val PTRFLAGS_MOVE = 0x0800
         const val PTRFLAGS_LBUTTON = 0x1000
@@ -32,15 +40,65 @@ internal class FreerdpEngine(
     @Volatile
     private var inst: Long = 0L
 
+    /** 当前绑定的视图；会话转入后台（[detachView]）时为 null，连接与帧缓冲照常保持 */
+    @Volatile
+    private var view: RdpSurfaceView? = initialView
+
     private val connectionResult = AtomicBoolean(false)
     private val connectionError = AtomicReference<String?>(null)
-    @Volatile
-    private var connectThread: Thread? = null
 
     @Volatile
     private var session: SessionState? = null
 
-    override fun connect(
+    /** 双缓冲帧缓冲：native 线程写 back，视图渲染线程读 front */
+    @Volatile
+    private var framebuffer: RemoteFramebuffer? = null
+
+    /** 输入事件经队列交给发送线程调用 JNI，UI 线程不等待 native 发送 */
+    private val inputQueue = InputEventQueue(::dispatchInput)
+    /** 与队列中的 TYPE_TEXT 记录一一对应、顺序一致的待发送文本 */
+    private val pendingTexts = ConcurrentLinkedDeque<String>()
+    /** 本会话的输入到上屏延迟统计 */
+    private val latencyTracer = InputLatencyTracer()
+    /** 主线程：下一个非移动输入事件的事件时间与指针位置（-1 表示无），入队时登记为延迟探针 */
+    private var traceEventTime = -1L
+    private var traceX = -1
+    private var traceY = -1
+    @Volatile
+    private var connectedHost: String? = null
+
+    /** 鼠标移动在入队前按间隔合并，其他事件入队前先补发暂存的移动 */
+    private val moveCoalescer = MouseMoveCoalescer { x, y -> enqueueCursor(x, y, PTRFLAGS_MOVE) }
+
+    /** 键盘布局：决定连接时的 /kbd 参数与按键映射表，需在 connect 前设置 */
+    var keyboardLayout: KeyboardLayoutProfile = KeyboardLayoutProfile.US
+
+    /** 连接配置（色深、编解码、缓存、压缩、视觉效果），需在 connect 前设置 */
+    var connectionProfile: ConnectionProfile = ConnectionProfile.defaults()
+
+    /** 本次连接注册的生命周期回调，释放时按值注销 */
+    @Volatile
+    private var eventListener: LibFreeRDP.EventListener? = null
+
+    @Volatile
+    override var onTerminated: (() -> Unit)? = null
+
+    /** 本次连接使用的持久化位图缓存文件；文件被其他会话占用时为 null */
+    @Volatile
+    private var persistentCacheFile: File? = null
+
+    /** 鼠标移动合并间隔（毫秒），<= 0 关闭合并 */
+    var mouseMoveIntervalMs: Long
+        get() = moveCoalescer.intervalMs
+        set(value) {
+            moveCoalescer.intervalMs = value
+        }
+
+    /** 视图不可见期间为 true：native 更新照常拷入帧缓冲，但不再投递重绘 */
+    @Volatile
+    private var outputSuppressed = false
+
+    override suspend fun connect(
         host: String,
         port: Int,
         username: String,
@@ -50,41 +108,51 @@ internal class FreerdpEngine(
         height: Int
     ): Boolean {
         if (inst != 0L) return false
+        // 设备列表已预解析的地址直接交给 native，省去连接路径上的 DNS 查询
+        val address = ConnectionPrewarmer.awaitAddress(host)
         inst = LibFreeRDP.newInstance(context)
         if (inst == 0L) return false
 
         connectionResult.set(false)
         connectionError.set(null)
-        val latch = CountDownLatch(1)
 
-        LibFreeRDP.setEventListener(object : LibFreeRDP.EventListener {
+        val listener = object : LibFreeRDP.EventListener {
             override fun OnPreConnect(instance: Long) {}
             override fun OnConnectionSuccess(instance: Long) {
                 connectionResult.set(true)
                 connectionError.set(null)
-                latch.countDown()
             }
             override fun OnConnectionFailure(instance: Long) {
                 connectionResult.set(false)
                 connectionError.set(LibFreeRDP.getLastErrorString(instance) ?: "Connection failed")
-                latch.countDown()
             }
             override fun OnDisconnecting(instance: Long) {}
             override fun OnDisconnected(instance: Long) {}
-        })
+        }
+        eventListener = listener
+        LibFreeRDP.registerEventListener(inst, listener)
 
-        if (!LibFreeRDP.setConnectionInfoFromParams(context, inst, host, port, username, domain, password, width, height)) {
+        // 每个会话键一个持久化位图缓存文件：连接时读入、断开时由 native 写回；被其他会话占用时不使用
+        val cacheFile = PersistentCacheStore.acquire(context.applicationContext, host, port, username)
+        persistentCacheFile = cacheFile
+        val profile = connectionProfile.toBuilder().persistentCache(cacheFile?.absolutePath).build()
+        if (!LibFreeRDP.setConnectionInfoFromParams(
+                context, inst, host, address, port, username, domain, password, width, height,
+                keyboardLayout.kbdArgument(), profile
+            )) {
             connectionError.set("setConnectionInfo failed")
-            latch.countDown()
-            LibFreeRDP.freeInstance(inst)
+            release(inst, null, listener)
             inst = 0L
             return false
         }
 
         // 注册 Session + UIEventListener，以便 native 的 OnGraphicsUpdate/OnGraphicsResize 能回写画面
         val sessionState = SessionState(inst)
-        val initialBitmap = Bitmap.createBitmap(width.coerceAtLeast(1), height.coerceAtLeast(1), Bitmap.Config.ARGB_8888)
-        sessionState.setSurface(android.graphics.drawable.BitmapDrawable(context.resources, initialBitmap))
+        // GLES 后端在渲染线程上直接从 back 上传纹理，省去 native 线程上的 back → front 拷贝；
+        // 软件后端与后台连接（无视图）仍用双缓冲
+        val singleBuffer = view?.renderBackend == RenderBackend.GLES
+        val initialFb = RemoteFramebuffer.create(width, height, Bitmap.Config.ARGB_8888, singleBuffer)
+        framebuffer = initialFb
         sessionState.setUIEventListener(object : LibFreeRDP.UIEventListener {
             override fun OnSettingsChanged(w: Int, h: Int, bpp: Int) {}
             override fun OnAuthenticate(username: StringBuilder, domain: StringBuilder, password: StringBuilder) = false
@@ -92,104 +160,189 @@ internal class FreerdpEngine(
             override fun OnVerifiyCertificateEx(host: String, port: Long, commonName: String, subject: String, issuer: String, fingerprint: String, flags: Long) = 0
             override fun OnVerifyChangedCertificateEx(host: String, port: Long, commonName: String, subject: String, issuer: String, fingerprint: String, oldSubject: String, oldIssuer: String, oldFingerprint: String, flags: Long) = 0
             override fun OnGraphicsUpdate(x: Int, y: Int, w: Int, h: Int) {
-                val s = session ?: return
-                val bmp = s.surface?.bitmap ?: return
-                val currentInst = inst
-                if (currentInst == 0L) return
-                val ok = LibFreeRDP.updateGraphics(currentInst, bmp, x, y, w, h)
-                if (!ok) {
-                    connectionError.set("图像更新失败（updateGraphics=false）")
-                    return
-                }
-                view.post {
-                    view.onFrameUpdated(x, y, w, h)
-                    view.drawRemoteFrame()
-                }
+                applyGraphicsUpdate(x, y, w, h)
             }
             override fun OnGraphicsResize(w: Int, h: Int, bpp: Int) {
-                val newBitmap = if (bpp > 16) {
-                    Bitmap.createBitmap(w.coerceAtLeast(1), h.coerceAtLeast(1), Bitmap.Config.ARGB_8888)
-                } else {
-                    Bitmap.createBitmap(w.coerceAtLeast(1), h.coerceAtLeast(1), Bitmap.Config.RGB_565)
-                }
-                session?.setSurface(android.graphics.drawable.BitmapDrawable(context.resources, newBitmap))
-                view.post {
-                    view.setRemoteBitmap(newBitmap)
-                    view.setRemoteSize(w, h)
+                val config = if (bpp > 16) Bitmap.Config.ARGB_8888 else Bitmap.Config.RGB_565
+                val oldFb = framebuffer
+                // 尺寸与格式未变（如重连后服务端重发同一分辨率）时沿用当前帧缓冲，内容由后续更新覆盖
+                if (oldFb != null && oldFb.width == w && oldFb.height == h && oldFb.config == config) return
+                // 先归还旧帧缓冲（等渲染线程读完），新帧缓冲即可复用它的 Bitmap，避免新旧两份同时占用内存
+                framebuffer = null
+                oldFb?.recycle()
+                val newFb = RemoteFramebuffer.create(w, h, config, singleBuffer)
+                framebuffer = newFb
+                val v = view
+                v?.post {
+                    // 投递期间会话可能已切到后台或绑定到其他视图
+                    if (view === v) {
+                        v.setRemoteFramebuffer(newFb)
+                        v.setRemoteSize(w, h)
+                    }
                 }
+                RdpSessionManager.enforceBudget()
             }
             override fun OnRemoteClipboardChanged(data: String) {}
         })
         session = sessionState
         GlobalApp.registerSession(inst, sessionState)
 
-        // 关键：connect 需要在独立线程中常驻，维持 FreeRDP 会话事件循环
-        val runner = Thread {
-            val ok = LibFreeRDP.connect(inst)
-            if (!ok && !connectionResult.get()) {
-                connectionError.compareAndSet(null, LibFreeRDP.getLastErrorString(inst) ?: "connect returned false")
-                latch.countDown()
+        // 关键：connect 需要在独立线程中常驻，维持 FreeRDP 会话事件循环；结果经 whenConnected 异步获知
+        val i = inst
+        Thread({
+            if (!LibFreeRDP.connect(i)) {
+                connectionError.compareAndSet(null, LibFreeRDP.getLastErrorString(i) ?: "connect returned false")
             }
-        }
-        connectThread = runner
-        runner.start()
-        latch.await(30, TimeUnit.SECONDS)
-
-        if (!connectionResult.get()) {
-            GlobalApp.unregisterSession(inst)
+        }, "RdpSession").start()
+        // 挂起等待而不占用线程；超时后释放流程同样不阻塞
+        val connected = withTimeoutOrNull(CONNECT_TIMEOUT_MS) { LibFreeRDP.whenConnected(i).await() }
+        if (connected != true || !connectionResult.get()) {
+            if (connected == null) connectionError.compareAndSet(null, "Connection timed out")
+            GlobalApp.unregisterSession(i)
             session = null
-            LibFreeRDP.disconnect(inst)
-            try {
-                connectThread?.join(1000)
-            } catch (_: InterruptedException) {
-            }
-            connectThread = null
-            LibFreeRDP.freeInstance(inst)
+            release(i, framebuffer.also { framebuffer = null }, listener)
             inst = 0L
             return false
         }
-        view.setRemoteBitmap(initialBitmap)
-        view.setRemoteSize(width, height)
+        inputQueue.start()
+        connectedHost = host
+        // 服务端结束会话（非本地断开）时通知会话管理移除并释放
+        LibFreeRDP.whenTerminated(i).thenRun { if (inst == i) onTerminated?.invoke() }
+        // 视图只能在主线程更新；期间 OnGraphicsResize 可能已换下 initialFb，推送当前帧缓冲
+        val v = view
+        v?.post {
+            if (view === v) {
+                v.latencyTracer = latencyTracer
+                framebuffer?.let {
+                    v.setRemoteFramebuffer(it)
+                    v.setRemoteSize(it.width, it.height)
+                }
+            }
+        }
         return true
     }
 
+    /** native 线程：把更新区域从 FreeRDP GDI 缓冲拷入帧缓冲 back 并交接到 front */
+    private fun applyGraphicsUpdate(x: Int, y: Int, w: Int, h: Int) {
+        if (session == null) return
+        val fb = framebuffer ?: return
+        val currentInst = inst
+        if (currentInst == 0L) return
+        // 写入 back 缓冲后交接到 front，渲染线程不会读到写了一半的区域
+        val bmp = fb.beginWrite() ?: return
+        var ok = false
+        try {
+            ok = LibFreeRDP.updateGraphics(currentInst, bmp, x, y, w, h)
+        } finally {
+            fb.endWrite(x, y, w, h, ok)
+        }
+        if (!ok) {
+            connectionError.set("图像更新失败（updateGraphics=false）")
+            return
+        }
+        // 不可见期间帧缓冲保持最新，恢复时整幅重绘即可，无需在其他线程补拷
+        if (outputSuppressed) return
+        latencyTracer.onGraphicsUpdate(x, y, w, h)
+        // 仅累加脏区域，由视图按 vsync 合并绘制，避免每次更新都向主线程投递一次重绘
+        val v = view ?: return
+        v.onFrameUpdated(x, y, w, h)
+        v.invalidateRemote(x, y, w, h)
+    }
+
+    /**
+     * 预编译 native 库未导出 Suppress Output PDU 接口，服务端仍会继续发送图像；
+     * 这里在客户端侧止损：不可见期间跳过重绘与延迟统计，GDI → 帧缓冲拷贝仍在会话线程上照常进行
+     * （updateGraphics 只能在会话线程上调用，否则可能与 free 竞争）。
+     * 因此恢复可见时帧缓冲已是最新画面，把整幅登记为脏区域（GL 纹理需整幅重传）重绘一次即完成刷新。
+     */
+    override fun setOutputSuppressed(suppressed: Boolean) {
+        outputSuppressed = suppressed
+        if (suppressed) return
+        val fb = framebuffer ?: return
+        view?.invalidateRemote(0, 0, fb.width, fb.height)
+    }
+
+    override val isConnected: Boolean
+        get() = inst.let { it != 0L && LibFreeRDP.getInstanceState(it) == LibFreeRDP.InstanceState.CONNECTED }
+
+    override val framebufferBytes: Long
+        get() = framebuffer?.byteCount ?: 0L
+
+    /** 主线程：把保持中的会话绑定到视图，推送当前帧缓冲并恢复画面输出 */
+    override fun attachView(view: RdpSurfaceView) {
+        this.view = view
+        view.latencyTracer = latencyTracer
+        framebuffer?.let {
+            view.setRemoteFramebuffer(it)
+            view.setRemoteSize(it.width, it.height)
+        }
+        setOutputSuppressed(!view.isSurfaceReady)
+    }
+
+    /** 主线程：会话转入后台，解绑视图并抑制画面输出，连接保持 */
+    override fun detachView() {
+        setOutputSuppressed(true)
+        moveCoalescer.flush()
+        view = null
+    }
+
     override fun disconnect() {
+        disconnect(keepFramebuffer = false)
+    }
+
+    override fun disconnect(keepFramebuffer: Boolean) {
         val i = inst
+        val listener = eventListener
         if (i != 0L) {
+            // 发送线程的停止与等待在 release 中完成，这里不阻塞调用线程（可能是主线程）
+            moveCoalescer.cancel()
+            Log.i(TAG, "input latency [${connectedHost}]: ${latencyTracer.summary()}")
+            pendingTexts.clear()
             inst = 0L
             session = null
             GlobalApp.unregisterSession(i)
-            LibFreeRDP.disconnect(i)
-            try {
-                connectThread?.join(1000)
-            } catch (_: InterruptedException) {
-            }
-            connectThread = null
-            LibFreeRDP.freeInstance(i)
+            val fb = framebuffer.also { framebuffer = null }
+            // 视图已接管帧缓冲时由视图回收；未绑定视图时没有其他持有者，照常回收
+            release(i, if (keepFramebuffer && view != null) null else fb, listener)
         }
     }
 
+    /**
+     * 断开并释放实例，不等待：先注销本会话的回调（释放后 native 地址可能被新实例复用，只移除自己注册的监听），
+     * 输入发送线程退出（可能正在 JNI 内）后才开始释放，
+     * 会话线程退出、native 释放完成后把帧缓冲归还到 BitmapPool（此后不会再被 native 写入），供重连复用。
+     */
+    private fun release(i: Long, fb: RemoteFramebuffer?, listener: LibFreeRDP.EventListener?) {
+        val cacheFile = persistentCacheFile
+        if (listener != null) LibFreeRDP.unregisterEventListener(i, listener)
+        // 释放可能在调用方线程（如主线程）同步完成，收尾的文件操作统一放到 IO 线程
+        inputQueue.stop().thenCompose { LibFreeRDP.freeInstance(i) }.whenCompleteAsync({ _, _ ->
+            fb?.recycle()
+            // native 已写回缓存文件：归还占用，并按总量上限淘汰其他会话的旧缓存
+            if (cacheFile != null) {
+                PersistentCacheStore.release(cacheFile)
+                PersistentCacheStore.trim(context.applicationContext, cacheFile)
+            }
+        }, Dispatchers.IO.asExecutor())
+    }
+
     override fun sendMouseMove(x: Int, y: Int) {
-        if (inst != 0L) {
-            val ok = LibFreeRDP.sendCursorEvent(inst, x, y, PTRFLAGS_MOVE)
-            if (!ok) connectionError.set("鼠标移动事件发送失败")
-        }
+        if (inst != 0L) moveCoalescer.move(x, y)
+    }
+
+    override fun sendMouseMoves(points: IntArray, count: Int) {
+        if (inst == 0L) return
+        for (i in 0 until count) moveCoalescer.sendNow(points[i * 2], points[i * 2 + 1])
     }
 
     override fun sendMouseDown(x: Int, y: Int, button: Int) {
-        if (inst != 0L) {
-            val btn = if (button == 2) PTRFLAGS_RBUTTON else PTRFLAGS_LBUTTON
-            val ok = LibFreeRDP.sendCursorEvent(inst, x, y, btn or PTRFLAGS_DOWN)
-            if (!ok) connectionError.set("鼠标按下事件发送失败")
-        }
+        val btn = if (button == 2) PTRFLAGS_RBUTTON else PTRFLAGS_LBUTTON
+        enqueueCursor(x, y, btn or PTRFLAGS_DOWN)
     }
 
     override fun sendMouseUp(x: Int, y: Int, button: Int) {
-        if (inst != 0L) {
-            val btn = if (button == 2) PTRFLAGS_RBUTTON else PTRFLAGS_LBUTTON
-            val ok = LibFreeRDP.sendCursorEvent(inst, x, y, btn)
-            if (!ok) connectionError.set("鼠标抬起事件发送失败")
-        }
+        val btn = if (button == 2) PTRFLAGS_RBUTTON else PTRFLAGS_LBUTTON
+        enqueueCursor(x, y, btn)
     }
 
     override fun sendMouseClick(x: Int, y: Int, button: Int) {
@@ -199,100 +352,91 @@ internal class FreerdpEngine(
 
     override fun sendMouseWheel(x: Int, y: Int, delta: Int) {
         // 按 FreeRDP Android Mouse.java：上滚 0x0078，下滚 0x0088|NEGATIVE
-        if (inst != 0L) {
-            val flags = if (delta < 0) {
-                PTRFLAGS_WHEEL or PTRFLAGS_WHEEL_NEGATIVE or 0x0088
-            } else {
-                PTRFLAGS_WHEEL or 0x0078
-            }
-            val ok = LibFreeRDP.sendCursorEvent(inst, x, y, flags)
-            if (!ok) connectionError.set("鼠标滚轮事件发送失败")
+        val flags = if (delta < 0) {
+            PTRFLAGS_WHEEL or PTRFLAGS_WHEEL_NEGATIVE or 0x0088
+        } else {
+            PTRFLAGS_WHEEL or 0x0078
         }
+        enqueueCursor(x, y, flags)
     }
 
     override fun sendKeyEvent(keyCode: Int, down: Boolean): Boolean {
         if (inst == 0L) return false
-        val vk = toWindowsVk(keyCode)
-        return LibFreeRDP.sendKeyEvent(inst, vk, down)
+        // 未映射的按键交还给系统处理，不再把 Android keycode 原样当作虚拟键码发送
+        val vk = keyboardLayout.toVk(keyCode)
+        if (vk == 0) {
+            traceEventTime = -1L
+            return false
+        }
+        return enqueue(InputEventQueue.TYPE_KEY, vk, if (down) 1 else 0, 0)
     }
 
     override fun sendUnicodeKey(keyCode: Int, down: Boolean): Boolean {
         if (inst == 0L) return false
-        return LibFreeRDP.sendUnicodeKeyEvent(inst, keyCode, down)
+        return enqueue(InputEventQueue.TYPE_UNICODE, keyCode, if (down) 1 else 0, 0)
     }
 
-    override val lastError: String?
-        get() = connectionError.get() ?: (if (inst != 0L) LibFreeRDP.getLastErrorString(inst) else null)
-
-    private fun toWindowsVk(androidKeyCode: Int): Int {
-        if (androidKeyCode in KeyEvent.KEYCODE_A..KeyEvent.KEYCODE_Z) {
-            return 0x41 + (androidKeyCode - KeyEvent.KEYCODE_A) // A..Z
-        }
-        if (androidKeyCode in KeyEvent.KEYCODE_0..KeyEvent.KEYCODE_9) {
-            return 0x30 + (androidKeyCode - KeyEvent.KEYCODE_0) // 0..9
+    override fun sendUnicodeText(text: String): Boolean {
+        if (inst == 0L || text.isEmpty()) return false
+        pendingTexts.addLast(text)
+        if (!enqueue(InputEventQueue.TYPE_TEXT, 0, 0, 0)) {
+            pendingTexts.pollLast()
+            return false
         }
-        if (androidKeyCode in KeyEvent.KEYCODE_NUMPAD_0..KeyEvent.KEYCODE_NUMPAD_9) {
-            return 0x60 + (androidKeyCode - KeyEvent.KEYCODE_NUMPAD_0) // NUMPAD0..9
+        return true
+    }
+
+    private fun enqueueCursor(x: Int, y: Int, flags: Int) {
+        if (inst != 0L) enqueue(InputEventQueue.TYPE_CURSOR, x, y, flags)
+    }
+
+    private fun enqueue(type: Int, a: Int, b: Int, c: Int): Boolean {
+        // 发送线程未运行（未连接或正在断开）时静默丢弃，不算作错误
+        if (!inputQueue.isRunning) return false
+        var record = type
+        if (type != InputEventQueue.TYPE_CURSOR || c != PTRFLAGS_MOVE) {
+            // 暂存的移动必须先于按键、滚轮等事件入队，保持原有顺序
+            moveCoalescer.flush()
+            if (traceEventTime >= 0 && latencyTracer.onInput(traceEventTime, traceX, traceY)) {
+                record = type or InputEventQueue.FLAG_TRACE
+            }
+            traceEventTime = -1L
         }
-        return when (androidKeyCode) {
-            KeyEvent.KEYCODE_ENTER, KeyEvent.KEYCODE_NUMPAD_ENTER -> 0x0D
-            KeyEvent.KEYCODE_DEL -> 0x08 // Backspace
-            KeyEvent.KEYCODE_BACK -> 0x1B // ESC
-            KeyEvent.KEYCODE_TAB -> 0x09
-            KeyEvent.KEYCODE_SPACE -> 0x20
-            KeyEvent.KEYCODE_ESCAPE -> 0x1B
-            KeyEvent.KEYCODE_FORWARD_DEL -> 0x2E
-            KeyEvent.KEYCODE_INSERT -> 0x2D
-            KeyEvent.KEYCODE_MOVE_HOME -> 0x24
-            KeyEvent.KEYCODE_MOVE_END -> 0x23
-            KeyEvent.KEYCODE_PAGE_UP -> 0x21
-            KeyEvent.KEYCODE_PAGE_DOWN -> 0x22
-            KeyEvent.KEYCODE_MINUS -> 0xBD
-            KeyEvent.KEYCODE_EQUALS -> 0xBB
-            KeyEvent.KEYCODE_LEFT_BRACKET -> 0xDB
-            KeyEvent.KEYCODE_RIGHT_BRACKET -> 0xDD
-            KeyEvent.KEYCODE_BACKSLASH -> 0xDC
-            KeyEvent.KEYCODE_SEMICOLON -> 0xBA
-            KeyEvent.KEYCODE_APOSTROPHE -> 0xDE
-            KeyEvent.KEYCODE_COMMA -> 0xBC
-            KeyEvent.KEYCODE_PERIOD -> 0xBE
-            KeyEvent.KEYCODE_SLASH -> 0xBF
-            KeyEvent.KEYCODE_GRAVE -> 0xC0
-            KeyEvent.KEYCODE_DPAD_LEFT -> 0x25
-            KeyEvent.KEYCODE_DPAD_UP -> 0x26
-            KeyEvent.KEYCODE_DPAD_RIGHT -> 0x27
-            KeyEvent.KEYCODE_DPAD_DOWN -> 0x28
-            KeyEvent.KEYCODE_NUMPAD_DIVIDE -> 0x6F
-            KeyEvent.KEYCODE_NUMPAD_MULTIPLY -> 0x6A
-            KeyEvent.KEYCODE_NUMPAD_SUBTRACT -> 0x6D
-            KeyEvent.KEYCODE_NUMPAD_ADD -> 0x6B
-            KeyEvent.KEYCODE_NUMPAD_DOT -> 0x6E
-            KeyEvent.KEYCODE_CTRL_LEFT -> 0xA2
-            KeyEvent.KEYCODE_CTRL_RIGHT -> 0xA3
-            KeyEvent.KEYCODE_SHIFT_LEFT -> 0xA0
-            KeyEvent.KEYCODE_SHIFT_RIGHT -> 0xA1
-            KeyEvent.KEYCODE_ALT_LEFT -> 0xA4
-            KeyEvent.KEYCODE_ALT_RIGHT -> 0xA5
-            KeyEvent.KEYCODE_META_LEFT -> 0x5B
-            KeyEvent.KEYCODE_META_RIGHT -> 0x5C
-            KeyEvent.KEYCODE_MENU -> 0x5D
-            KeyEvent.KEYCODE_CAPS_LOCK -> 0x14
-            KeyEvent.KEYCODE_SCROLL_LOCK -> 0x91
-            KeyEvent.KEYCODE_BREAK -> 0x13
-            KeyEvent.KEYCODE_SYSRQ -> 0x2C
-            KeyEvent.KEYCODE_F1 -> 0x70
-            KeyEvent.KEYCODE_F2 -> 0x71
-            KeyEvent.KEYCODE_F3 -> 0x72
-            KeyEvent.KEYCODE_F4 -> 0x73
-            KeyEvent.KEYCODE_F5 -> 0x74
-            KeyEvent.KEYCODE_F6 -> 0x75
-            KeyEvent.KEYCODE_F7 -> 0x76
-            KeyEvent.KEYCODE_F8 -> 0x77
-            KeyEvent.KEYCODE_F9 -> 0x78
-            KeyEvent.KEYCODE_F10 -> 0x79
-            KeyEvent.KEYCODE_F11 -> 0x7A
-            KeyEvent.KEYCODE_F12 -> 0x7B
-            else -> androidKeyCode
+        val ok = inputQueue.offer(record, a, b, c)
+        if (!ok) connectionError.set("输入队列已满，事件被丢弃")
+        return ok
+    }
+
+    /** 发送线程：按入队顺序调用 JNI */
+    private fun dispatchInput(record: Int, a: Int, b: Int, c: Int) {
+        val i = inst
+        if (i == 0L) return
+        when (record and InputEventQueue.FLAG_TRACE.inv()) {
+            InputEventQueue.TYPE_CURSOR -> {
+                if (!LibFreeRDP.sendCursorEvent(i, a, b, c)) connectionError.set("鼠标事件发送失败")
+            }
+            InputEventQueue.TYPE_KEY -> {
+                if (!LibFreeRDP.sendKeyEvent(i, a, b != 0)) connectionError.set("键盘事件发送失败")
+            }
+            InputEventQueue.TYPE_UNICODE -> {
+                if (!LibFreeRDP.sendUnicodeKeyEvent(i, a, b != 0)) connectionError.set("Unicode 输入事件发送失败")
+            }
+            InputEventQueue.TYPE_TEXT -> {
+                val text = pendingTexts.pollFirst() ?: return
+                if (!LibFreeRDP.sendUnicodeText(i, text)) connectionError.set("文本输入发送失败")
+            }
         }
+        if (record and InputEventQueue.FLAG_TRACE != 0) latencyTracer.onSent()
+    }
+
+    override fun traceInput(eventTimeMs: Long, x: Int, y: Int) {
+        traceEventTime = eventTimeMs
+        traceX = x
+        traceY = y
     }
+
+    override fun latencySummary(): String = latencyTracer.summary()
+
+    override val lastError: String?
+        get() = connectionError.get() ?: (if (inst != 0L) LibFreeRDP.getLastErrorString(inst) else null)
 }
@@ -0,0 +1,334 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.graphics.RectF
+import android.graphics.Region
+import android.opengl.EGL14
+import android.opengl.EGLConfig
+import android.opengl.EGLContext
+import android.opengl.EGLDisplay
+import android.opengl.EGLSurface
+import android.opengl.GLES20
+import android.util.Log
+import android.view.SurfaceHolder
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.IntBuffer
+
+/**
+ * OpenGL ES 渲染（优先 3.0，兼容 2.0）：直接在现有 SurfaceView 上创建 EGL 窗口表面。
+ * 远程桌面常驻一张与帧缓冲同尺寸的纹理，仅上传脏区域（按行分段，暂存缓冲大小有上限），
+ * 缩放与平移由 GPU 完成，CPU 不再对整幅画面逐帧缩放。
+ *
+ * 像素经 Bitmap.getPixels 取出为 ARGB 整数，按小端写入后以 RGBA 上传，着色器中做 bgr 交换还原颜色，
+ * 因此 ARGB_8888 与 RGB_565 帧缓冲走同一条上传路径。
+ * 单缓冲帧缓冲下 frame.bitmap 即 back，上传期间 native 写入被挡在 back 锁外，拷贝只发生在渲染线程。
+ *
+ * 本地放大时只上传视口内可见的脏区域；不可见部分记入 staleRegion，平移或缩小使其进入视口时再补传。
+ */
+internal class GlesRenderer private constructor(
+    private val display: EGLDisplay,
+    private val context: EGLContext,
+    private val eglSurface: EGLSurface
+) : RemoteRenderer {
+
+    private val program: Int
+    private val aPosition: Int
+    private val aTexCoord: Int
+    private val uTexture: Int
+    private val texture: Int
+    private val maxTextureSize: Int
+
+    /** 当前纹理内容对应的 Bitmap 与尺寸；来源或尺寸变化时整幅重新上传 */
+    private var uploadedSource: Bitmap? = null
+    private var textureWidth = 0
+    private var textureHeight = 0
+    /** 纹理中已过期（帧缓冲已更新但尚未上传）的区域，帧缓冲坐标 */
+    private val staleRegion = Region()
+    private val uploadRegion = Region()
+
+    private var scratch = IntArray(0)
+    private var uploadBuffer: IntBuffer = IntBuffer.allocate(0)
+    private val vertices = FloatArray(16)
+    private val quad: FloatBuffer = ByteBuffer.allocateDirect(16 * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer()
+
+    init {
+        program = buildProgram()
+        aPosition = GLES20.glGetAttribLocation(program, "aPosition")
+        aTexCoord = GLES20.glGetAttribLocation(program, "aTexCoord")
+        uTexture = GLES20.glGetUniformLocation(program, "uTexture")
+        val max = IntArray(1)
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, max, 0)
+        maxTextureSize = max[0]
+        val tex = IntArray(1)
+        GLES20.glGenTextures(1, tex, 0)
+        texture = tex[0]
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE)
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4)
+    }
+
+    override fun drawFrame(
+        frame: FrontFrame,
+        damage: Rect?,
+        fullRepaint: Boolean,
+        dst: RectF,
+        surfaceWidth: Int,
+        surfaceHeight: Int
+    ): Boolean {
+        val w = frame.width
+        val h = frame.height
+        if (w > maxTextureSize || h > maxTextureSize) return false
+        val source = frame.bitmap
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture)
+        if (source !== uploadedSource || w != textureWidth || h != textureHeight) {
+            GLES20.glTexImage2D(
+                GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, w, h, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null
+            )
+            textureWidth = w
+            textureHeight = h
+            uploadedSource = source
+            staleRegion.set(0, 0, w, h)
+        } else if (damage != null) {
+            staleRegion.op(damage, Region.Op.UNION)
+            staleRegion.op(0, 0, w, h, Region.Op.INTERSECT)
+        }
+        var uploaded = false
+        val visible = visibleFramebufferRect(dst, w, h, surfaceWidth, surfaceHeight)
+        if (!staleRegion.isEmpty && !visible.isEmpty) {
+            uploadRegion.set(staleRegion)
+            if (uploadRegion.op(visible, Region.Op.INTERSECT)) {
+                val r = uploadRegion.bounds
+                uploadBitmap(source, r.left, r.top, r.width(), r.height())
+                staleRegion.op(r, Region.Op.DIFFERENCE)
+                uploaded = true
+            }
+        }
+        // 像素已进纹理，绘制与交换期间不再占用帧缓冲
+        frame.endRead()
+        // 可见内容与布局均未变化，沿用上一帧
+        if (!fullRepaint && !uploaded) return true
+
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight)
+        GLES20.glClearColor(0f, 0f, 0f, 1f)
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT)
+        GLES20.glUseProgram(program)
+        GLES20.glUniform1i(uTexture, 0)
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0)
+
+        // 视图坐标转 NDC；三角带顺序：左下、右下、左上、右上，纹理第 0 行对应帧缓冲顶部
+        val l = dst.left / surfaceWidth * 2f - 1f
+        val r = dst.right / surfaceWidth * 2f - 1f
+        val t = 1f - dst.top / surfaceHeight * 2f
+        val b = 1f - dst.bottom / surfaceHeight * 2f
+        setVertex(0, l, b, 0f, 1f)
+        setVertex(1, r, b, 1f, 1f)
+        setVertex(2, l, t, 0f, 0f)
+        setVertex(3, r, t, 1f, 0f)
+        quad.clear()
+        quad.put(vertices)
+        quad.position(0)
+        GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_FLOAT, false, 16, quad)
+        GLES20.glEnableVertexAttribArray(aPosition)
+        quad.position(2)
+        GLES20.glVertexAttribPointer(aTexCoord, 2, GLES20.GL_FLOAT, false, 16, quad)
+        GLES20.glEnableVertexAttribArray(aTexCoord)
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4)
+
+        if (!EGL14.eglSwapBuffers(display, eglSurface)) {
+            Log.w(TAG, "eglSwapBuffers failed: 0x" + Integer.toHexString(EGL14.eglGetError()))
+        }
+        return true
+    }
+
+    override fun invalidateContent() {
+        uploadedSource = null
+        staleRegion.setEmpty()
+    }
+
+    override fun release() {
+        GLES20.glDeleteTextures(1, intArrayOf(texture), 0)
+        GLES20.glDeleteProgram(program)
+        uploadedSource = null
+        EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT)
+        EGL14.eglDestroySurface(display, eglSurface)
+        EGL14.eglDestroyContext(display, context)
+        EGL14.eglReleaseThread()
+    }
+
+    private fun setVertex(i: Int, x: Float, y: Float, u: Float, v: Float) {
+        vertices[i * 4] = x
+        vertices[i * 4 + 1] = y
+        vertices[i * 4 + 2] = u
+        vertices[i * 4 + 3] = v
+    }
+
+    /** 按行分段把 Bitmap 的 (x, y, w, h) 区域经暂存数组上传到纹理同一位置 */
+    private fun uploadBitmap(bmp: Bitmap, x: Int, y: Int, w: Int, h: Int) {
+        val rowsPerBand = (UPLOAD_BAND_PIXELS / w).coerceIn(1, h)
+        ensureScratch(w * rowsPerBand)
+        var row = y
+        val end = y + h
+        while (row < end) {
+            val rows = minOf(rowsPerBand, end - row)
+            bmp.getPixels(scratch, 0, w, x, row, w, rows)
+            uploadBuffer.clear()
+            uploadBuffer.put(scratch, 0, w * rows)
+            uploadBuffer.position(0)
+            GLES20.glTexSubImage2D(
+                GLES20.GL_TEXTURE_2D, 0, x, row, w, rows,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, uploadBuffer
+            )
+            row += rows
+        }
+    }
+
+    private fun ensureScratch(pixels: Int) {
+        if (scratch.size >= pixels) return
+        scratch = IntArray(pixels)
+        uploadBuffer = ByteBuffer.allocateDirect(pixels * 4)
+            .order(ByteOrder.nativeOrder())
+            .asIntBuffer()
+    }
+
+    private fun buildProgram(): Int {
+        val vs = compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER)
+        val fs = compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER)
+        val p = GLES20.glCreateProgram()
+        GLES20.glAttachShader(p, vs)
+        GLES20.glAttachShader(p, fs)
+        GLES20.glLinkProgram(p)
+        GLES20.glDeleteShader(vs)
+        GLES20.glDeleteShader(fs)
+        val status = IntArray(1)
+        GLES20.glGetProgramiv(p, GLES20.GL_LINK_STATUS, status, 0)
+        if (status[0] == 0) {
+            val log = GLES20.glGetProgramInfoLog(p)
+            GLES20.glDeleteProgram(p)
+            throw IllegalStateException("link program failed: $log")
+        }
+        return p
+    }
+
+    private fun compileShader(type: Int, source: String): Int {
+        val shader = GLES20.glCreateShader(type)
+        GLES20.glShaderSource(shader, source)
+        GLES20.glCompileShader(shader)
+        val status = IntArray(1)
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0)
+        if (status[0] == 0) {
+            val log = GLES20.glGetShaderInfoLog(shader)
+            GLES20.glDeleteShader(shader)
+            throw IllegalStateException("compile shader failed: $log")
+        }
+        return shader
+    }
+
+    companion object {
+        private const val TAG = "GlesRenderer"
+        /** 单次上传的最大像素数（约 1MB 暂存），大区域按行分段上传 */
+        private const val UPLOAD_BAND_PIXELS = 256 * 1024
+
+        private const val VERTEX_SHADER = """
+            attribute vec4 aPosition;
+            attribute vec2 aTexCoord;
+            varying vec2 vTexCoord;
+            void main() {
+                gl_Position = aPosition;
+                vTexCoord = aTexCoord;
+            }
+        """
+
+        // 4K 纹理坐标需要 highp 精度，否则采样会错位
+        private const val FRAGMENT_SHADER = """
+            #ifdef GL_FRAGMENT_PRECISION_HIGH
+            precision highp float;
+            #else
+            precision mediump float;
+            #endif
+            varying vec2 vTexCoord;
+            uniform sampler2D uTexture;
+            void main() {
+                gl_FragColor = vec4(texture2D(uTexture, vTexCoord).bgr, 1.0);
+            }
+        """
+
+        /**
+         * 在当前（渲染）线程为 SurfaceView 创建 EGL 上下文与窗口表面；
+         * 任一步失败返回 null，由调用方回退到软件渲染。
+         */
+        fun create(holder: SurfaceHolder): GlesRenderer? {
+            val display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY)
+            if (display == EGL14.EGL_NO_DISPLAY) return null
+            val version = IntArray(2)
+            if (!EGL14.eglInitialize(display, version, 0, version, 1)) return null
+
+            val config = chooseConfig(display, EGL14.EGL_OPENGL_ES2_BIT)
+            val context = config?.let { createContext(display, it, 2) }
+            if (config == null || context == null) {
+                Log.w(TAG, "no usable EGL config/context: 0x" + Integer.toHexString(EGL14.eglGetError()))
+                return null
+            }
+            val surface = try {
+                EGL14.eglCreateWindowSurface(display, config, holder.surface, intArrayOf(EGL14.EGL_NONE), 0)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+            if (surface == null || surface == EGL14.EGL_NO_SURFACE) {
+                Log.w(TAG, "eglCreateWindowSurface failed: 0x" + Integer.toHexString(EGL14.eglGetError()))
+                EGL14.eglDestroyContext(display, context)
+                return null
+            }
+            if (!EGL14.eglMakeCurrent(display, surface, surface, context)) {
+                Log.w(TAG, "eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()))
+                EGL14.eglDestroySurface(display, surface)
+                EGL14.eglDestroyContext(display, context)
+                return null
+            }
+            return try {
+                GlesRenderer(display, context, surface)
+            } catch (e: RuntimeException) {
+                Log.w(TAG, "GLES renderer init failed", e)
+                EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT)
+                EGL14.eglDestroySurface(display, surface)
+                EGL14.eglDestroyContext(display, context)
+                null
+            }
+        }
+
+        private fun chooseConfig(display: EGLDisplay, renderableType: Int): EGLConfig? {
+            val attribs = intArrayOf(
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT,
+                EGL14.EGL_NONE
+            )
+            val configs = arrayOfNulls<EGLConfig>(1)
+            val numConfigs = IntArray(1)
+            if (!EGL14.eglChooseConfig(display, attribs, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+                return null
+            }
+            return configs[0]
+        }
+
+        private fun createContext(display: EGLDisplay, config: EGLConfig, version: Int): EGLContext? {
+            val context = EGL14.eglCreateContext(
+                display, config, EGL14.EGL_NO_CONTEXT,
+                intArrayOf(EGL14.EGL_CONTEXT_CLIENT_VERSION, version, EGL14.EGL_NONE), 0
+            )
+            return if (context == null || context == EGL14.EGL_NO_CONTEXT) null else context
+        }
+    }
+}
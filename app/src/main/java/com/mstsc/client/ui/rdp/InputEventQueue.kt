@@ -0,0 +1,124 @@
+package com.mstsc.client.ui.rdp
+
+import android.os.Process
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 输入事件队列：UI 线程只把事件写入无锁环形缓冲，由独立的高优先级发送线程按入队顺序逐个调用 JNI，
+ * 网络拥塞导致的 native 发送阻塞不再卡住触摸与按键处理。
+ *
+ * - 单生产者单消费者：仅允许一个线程（主线程）调用 [offer]，发送线程是唯一消费者；
+ * - 每条记录为 4 个 int（type, a, b, c），不产生对象分配；鼠标与键盘共用一个队列，相对顺序不变；
+ * - 队列满时 [offer] 返回 false，由调用方决定是否提示，不会阻塞 UI 线程；
+ * - [stop] 只发出停止信号、不等待，调用方通过返回的 future 得知发送线程何时不再调用 JNI。
+ */
+internal class InputEventQueue(
+    private val sink: Sink,
+    capacity: Int = DEFAULT_CAPACITY
+) {
+    /** 在发送线程上被调用，负责真正的 JNI 发送 */
+    fun interface Sink {
+        fun onInputEvent(type: Int, a: Int, b: Int, c: Int)
+    }
+
+    private val capacity = Integer.highestOneBit((capacity - 1).coerceAtLeast(1)) shl 1
+    private val mask = this.capacity - 1
+    private val slots = IntArray(this.capacity * FIELDS)
+
+    /** 下一个待写入序号，仅生产者修改；volatile 写发布该序号之前的记录 */
+    @Volatile
+    private var tail = 0L
+    /** 下一个待读取序号，仅发送线程修改；volatile 写释放已读槽位 */
+    @Volatile
+    private var head = 0L
+    /** 当前发送线程；各发送线程只在自己仍是当前线程时继续消费，旧线程不会与重启后的新线程并发读取 */
+    @Volatile
+    private var thread: Thread? = null
+    /** 最近一个发送线程退出（不再调用 [Sink]）时完成 */
+    @Volatile
+    private var exited: CompletableFuture<Void?> = CompletableFuture.completedFuture(null)
+
+    /** 发送线程是否在运行；未运行时调用方应直接丢弃事件 */
+    val isRunning: Boolean
+        get() = thread != null
+
+    fun start() {
+        if (thread != null) return
+        val done = CompletableFuture<Void?>()
+        exited = done
+        thread = Thread({
+            try {
+                drainLoop()
+            } finally {
+                done.complete(null)
+            }
+        }, "RdpInput").also { it.start() }
+    }
+
+    /**
+     * 通知发送线程停止并立即返回，不等待（可在主线程调用，可重复调用）；已入队但未发送的事件被丢弃。
+     * 返回的 future 在发送线程退出后完成：线程可能正阻塞在 JNI 内，释放 native 实例前必须等它完成。
+     */
+    fun stop(): CompletableFuture<Void?> {
+        val t = thread ?: return exited
+        thread = null
+        LockSupport.unpark(t)
+        return exited
+    }
+
+    /** 入队一条事件（仅生产者线程调用）；队列已满或未启动时返回 false，未启动可用 [isRunning] 区分 */
+    fun offer(type: Int, a: Int, b: Int, c: Int): Boolean {
+        val t = thread ?: return false
+        val seq = tail
+        if (seq - head >= capacity) return false
+        val base = (seq.toInt() and mask) * FIELDS
+        slots[base] = type
+        slots[base + 1] = a
+        slots[base + 2] = b
+        slots[base + 3] = c
+        tail = seq + 1
+        LockSupport.unpark(t)
+        return true
+    }
+
+    private fun drainLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY)
+        val self = Thread.currentThread()
+        while (thread === self) {
+            var seq = head
+            val end = tail
+            if (seq == end) {
+                // unpark 先于 park 时许可会保留，不会错过唤醒
+                LockSupport.park(this)
+                continue
+            }
+            while (seq < end && thread === self) {
+                val base = (seq.toInt() and mask) * FIELDS
+                val type = slots[base]
+                val a = slots[base + 1]
+                val b = slots[base + 2]
+                val c = slots[base + 3]
+                head = ++seq
+                sink.onInputEvent(type, a, b, c)
+            }
+        }
+    }
+
+    companion object {
+        /** 鼠标事件：a=x, b=y, c=PTRFLAGS */
+        const val TYPE_CURSOR = 1
+        /** 扫描码/虚拟键事件：a=VK, b=1 按下 / 0 抬起 */
+        const val TYPE_KEY = 2
+        /** Unicode 字符事件：a=UTF-16 码元, b=1 按下 / 0 抬起 */
+        const val TYPE_UNICODE = 3
+        /** 整段文本：文本本身由调用方按入队顺序另行保存，记录字段不使用 */
+        const val TYPE_TEXT = 4
+
+        /** 叠加在 type 上的标记：该事件是延迟追踪探针，发送后需通知 [InputLatencyTracer] */
+        const val FLAG_TRACE = 0x100
+
+        private const val FIELDS = 4
+        private const val DEFAULT_CAPACITY = 1024
+    }
+}
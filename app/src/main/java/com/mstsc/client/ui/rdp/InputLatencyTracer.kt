@@ -0,0 +1,136 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Rect
+
+/**
+ * 输入到上屏的端到端延迟追踪（每个会话一个实例）。
+ *
+ * 同一时刻只追踪一个探针输入（按键、鼠标按键、滚轮、文本），上一个完成或超时后才开始下一个，
+ * 追踪开销与输入频率无关。一个探针分四个时间点，拆成三段记入各自的直方图：
+ * - send：输入事件时间 → 发送线程调用 JNI 完成（排队、合并、JNI 发送）；
+ * - network：发送完成 → 首个覆盖指针位置的图像更新到达（网络往返 + 服务端处理 + 解码）；
+ *   键盘事件无位置，取发送后的首个图像更新；
+ * - render：图像更新到达 → 渲染线程把包含该区域的帧提交到 Surface。
+ *
+ * 各回调分别来自主线程、发送线程、native 线程与渲染线程，以自身为锁同步，频率很低。
+ */
+internal class InputLatencyTracer {
+
+    private val send = LatencyHistogram()
+    private val network = LatencyHistogram()
+    private val render = LatencyHistogram()
+    private val total = LatencyHistogram()
+    private var timedOut = 0
+
+    private var state = IDLE
+    private var inputNanos = 0L
+    private var sentNanos = 0L
+    private var updateNanos = 0L
+    private var probeX = -1
+    private var probeY = -1
+    private val updateRect = Rect()
+
+    /** 主线程：登记一个探针输入；已有探针在途时返回 false（该输入不追踪） */
+    @Synchronized
+    fun onInput(eventUptimeMs: Long, x: Int, y: Int): Boolean {
+        val now = System.nanoTime()
+        if (state != IDLE) {
+            if (now - inputNanos < TIMEOUT_NANOS) return false
+            timedOut++
+        }
+        // MotionEvent/KeyEvent 的事件时间与 System.nanoTime 同为单调时钟
+        inputNanos = eventUptimeMs * 1_000_000L
+        probeX = x
+        probeY = y
+        state = QUEUED
+        return true
+    }
+
+    /** 发送线程：探针事件的 JNI 调用已返回 */
+    @Synchronized
+    fun onSent() {
+        if (state != QUEUED) return
+        sentNanos = System.nanoTime()
+        state = SENT
+    }
+
+    /** native 线程：帧缓冲区域 (x, y, w, h) 收到图像更新 */
+    @Synchronized
+    fun onGraphicsUpdate(x: Int, y: Int, w: Int, h: Int) {
+        if (state != SENT) return
+        if (probeX >= 0 && (probeX < x || probeY < y || probeX >= x + w || probeY >= y + h)) return
+        updateNanos = System.nanoTime()
+        updateRect.set(x, y, x + w, y + h)
+        state = UPDATED
+    }
+
+    /** 渲染线程：包含 damage 区域的帧已提交；fullRepaint 时视为覆盖全部区域 */
+    @Synchronized
+    fun onFrameRendered(damage: Rect?, fullRepaint: Boolean) {
+        if (state != UPDATED) return
+        if (!fullRepaint && (damage == null || !Rect.intersects(damage, updateRect))) return
+        val now = System.nanoTime()
+        send.record(sentNanos - inputNanos)
+        network.record(updateNanos - sentNanos)
+        render.record(now - updateNanos)
+        total.record(now - inputNanos)
+        state = IDLE
+    }
+
+    /** 汇总：各段 p50/p95/p99（毫秒）与样本数 */
+    @Synchronized
+    fun summary(): String = buildString {
+        append("total ").append(total.describe())
+        append("; send ").append(send.describe())
+        append("; network ").append(network.describe())
+        append("; render ").append(render.describe())
+        append("; timeout=").append(timedOut)
+    }
+
+    private companion object {
+        const val IDLE = 0
+        const val QUEUED = 1
+        const val SENT = 2
+        const val UPDATED = 3
+        const val TIMEOUT_NANOS = 2_000_000_000L
+    }
+}
+
+/** 按固定毫秒分桶的延迟直方图，百分位取所在桶的上界 */
+internal class LatencyHistogram {
+    private val counts = LongArray(BOUNDS_MS.size + 1)
+    private var samples = 0L
+
+    fun record(nanos: Long) {
+        val ms = nanos.coerceAtLeast(0L) / 1_000_000L
+        var i = 0
+        while (i < BOUNDS_MS.size && ms >= BOUNDS_MS[i]) i++
+        counts[i]++
+        samples++
+    }
+
+    /** 百分位 p（0~100）所在桶的上界（毫秒）；超出最大桶时返回 -1 */
+    fun percentile(p: Int): Long {
+        if (samples == 0L) return 0L
+        val target = (samples * p + 99) / 100
+        var acc = 0L
+        for (i in counts.indices) {
+            acc += counts[i]
+            if (acc >= target) return if (i < BOUNDS_MS.size) BOUNDS_MS[i] else -1L
+        }
+        return -1L
+    }
+
+    fun describe(): String {
+        if (samples == 0L) return "n=0"
+        return "p50${bound(percentile(50))} p95${bound(percentile(95))} p99${bound(percentile(99))} n=$samples"
+    }
+
+    private fun bound(ms: Long): String = if (ms < 0) ">=${BOUNDS_MS.last()}ms" else "<${ms}ms"
+
+    private companion object {
+        val BOUNDS_MS = longArrayOf(
+            2, 4, 6, 8, 12, 16, 24, 32, 48, 64, 96, 128, 192, 256, 384, 512, 768, 1024, 1536, 2048
+        )
+    }
+}
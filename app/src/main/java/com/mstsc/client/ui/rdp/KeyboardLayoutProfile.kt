@@ -0,0 +1,129 @@
+package com.mstsc.client.ui.rdp
+
+import android.view.KeyEvent
+import androidx.annotation.StringRes
+import com.mstsc.client.R
+
+/**
+ * 键盘布局配置：每台设备可选，决定发往服务端的键盘布局/类型（/kbd 参数）以及按键映射表。
+ *
+ * 映射表为按 Android keycode 下标的数组（0 表示不映射，交还给系统处理），按键热路径上只做一次数组取值。
+ * 表中存放 Windows 虚拟键码：FreeRDP JNI 的 send_key_event 只接受虚拟键码，
+ * 由 native 换算为扫描码并自动附加扩展键标志（方向键、右 Ctrl/Alt、小键盘回车等）。
+ * Android keycode 本身按物理键位定义，因此字母区按 US 键位映射，由服务端按所选布局解释。
+ */
+enum class KeyboardLayoutProfile(
+    /** Windows 键盘布局 ID（KLID 低 16 位） */
+    val layoutId: Int,
+    /** MS-RDPBCGR 键盘类型，0 表示使用默认（IBM 101/102 键） */
+    val keyboardType: Int,
+    val keyboardSubType: Int,
+    @StringRes val labelRes: Int
+) {
+    US(0x0409, 0, 0, R.string.keyboard_layout_us),
+    JIS(0x0411, 7, 2, R.string.keyboard_layout_jis),
+    KOREAN(0x0412, 8, 0, R.string.keyboard_layout_korean);
+
+    private val vkTable: IntArray by lazy { buildTable(this) }
+
+    /** Android keycode → Windows 虚拟键码；无映射时返回 0 */
+    fun toVk(keyCode: Int): Int {
+        val table = vkTable
+        return if (keyCode >= 0 && keyCode < table.size) table[keyCode] else 0
+    }
+
+    /** FreeRDP /kbd 参数值（不含 "/kbd:" 前缀），保留 Unicode 输入 */
+    fun kbdArgument(): String {
+        val sb = StringBuilder("layout:0x").append(Integer.toHexString(layoutId))
+        if (keyboardType != 0) sb.append(",type:").append(keyboardType)
+        if (keyboardSubType != 0) sb.append(",subtype:").append(keyboardSubType)
+        return sb.append(",unicode:on").toString()
+    }
+
+    companion object {
+        /** 按名称解析（数据库中保存枚举名），未知或为空时回退到 US */
+        fun fromName(name: String?): KeyboardLayoutProfile =
+            values().firstOrNull { it.name == name } ?: US
+
+        private fun buildTable(profile: KeyboardLayoutProfile): IntArray {
+            val t = IntArray(KeyEvent.getMaxKeyCode() + 1)
+            fun map(keyCode: Int, vk: Int) {
+                if (keyCode < t.size) t[keyCode] = vk
+            }
+            for (k in KeyEvent.KEYCODE_A..KeyEvent.KEYCODE_Z) map(k, 0x41 + (k - KeyEvent.KEYCODE_A))
+            for (k in KeyEvent.KEYCODE_0..KeyEvent.KEYCODE_9) map(k, 0x30 + (k - KeyEvent.KEYCODE_0))
+            for (k in KeyEvent.KEYCODE_NUMPAD_0..KeyEvent.KEYCODE_NUMPAD_9) map(k, 0x60 + (k - KeyEvent.KEYCODE_NUMPAD_0))
+            for (k in KeyEvent.KEYCODE_F1..KeyEvent.KEYCODE_F12) map(k, 0x70 + (k - KeyEvent.KEYCODE_F1))
+
+            map(KeyEvent.KEYCODE_ENTER, 0x0D)
+            map(KeyEvent.KEYCODE_NUMPAD_ENTER, 0x0D)
+            map(KeyEvent.KEYCODE_DEL, 0x08) // Backspace
+            map(KeyEvent.KEYCODE_BACK, 0x1B) // ESC
+            map(KeyEvent.KEYCODE_ESCAPE, 0x1B)
+            map(KeyEvent.KEYCODE_TAB, 0x09)
+            map(KeyEvent.KEYCODE_SPACE, 0x20)
+            map(KeyEvent.KEYCODE_FORWARD_DEL, 0x2E)
+            map(KeyEvent.KEYCODE_INSERT, 0x2D)
+            map(KeyEvent.KEYCODE_MOVE_HOME, 0x24)
+            map(KeyEvent.KEYCODE_MOVE_END, 0x23)
+            map(KeyEvent.KEYCODE_PAGE_UP, 0x21)
+            map(KeyEvent.KEYCODE_PAGE_DOWN, 0x22)
+            map(KeyEvent.KEYCODE_DPAD_LEFT, 0x25)
+            map(KeyEvent.KEYCODE_DPAD_UP, 0x26)
+            map(KeyEvent.KEYCODE_DPAD_RIGHT, 0x27)
+            map(KeyEvent.KEYCODE_DPAD_DOWN, 0x28)
+
+            map(KeyEvent.KEYCODE_MINUS, 0xBD)
+            map(KeyEvent.KEYCODE_EQUALS, 0xBB)
+            map(KeyEvent.KEYCODE_LEFT_BRACKET, 0xDB)
+            map(KeyEvent.KEYCODE_RIGHT_BRACKET, 0xDD)
+            map(KeyEvent.KEYCODE_BACKSLASH, 0xDC)
+            map(KeyEvent.KEYCODE_SEMICOLON, 0xBA)
+            map(KeyEvent.KEYCODE_APOSTROPHE, 0xDE)
+            map(KeyEvent.KEYCODE_COMMA, 0xBC)
+            map(KeyEvent.KEYCODE_PERIOD, 0xBE)
+            map(KeyEvent.KEYCODE_SLASH, 0xBF)
+            map(KeyEvent.KEYCODE_GRAVE, 0xC0)
+
+            map(KeyEvent.KEYCODE_NUMPAD_DIVIDE, 0x6F)
+            map(KeyEvent.KEYCODE_NUMPAD_MULTIPLY, 0x6A)
+            map(KeyEvent.KEYCODE_NUMPAD_SUBTRACT, 0x6D)
+            map(KeyEvent.KEYCODE_NUMPAD_ADD, 0x6B)
+            map(KeyEvent.KEYCODE_NUMPAD_DOT, 0x6E)
+            map(KeyEvent.KEYCODE_NUMPAD_COMMA, 0x6C)
+            map(KeyEvent.KEYCODE_NUM_LOCK, 0x90)
+
+            map(KeyEvent.KEYCODE_CTRL_LEFT, 0xA2)
+            map(KeyEvent.KEYCODE_CTRL_RIGHT, 0xA3)
+            map(KeyEvent.KEYCODE_SHIFT_LEFT, 0xA0)
+            map(KeyEvent.KEYCODE_SHIFT_RIGHT, 0xA1)
+            map(KeyEvent.KEYCODE_ALT_LEFT, 0xA4)
+            map(KeyEvent.KEYCODE_ALT_RIGHT, 0xA5)
+            map(KeyEvent.KEYCODE_META_LEFT, 0x5B)
+            map(KeyEvent.KEYCODE_META_RIGHT, 0x5C)
+            map(KeyEvent.KEYCODE_MENU, 0x5D)
+            map(KeyEvent.KEYCODE_CAPS_LOCK, 0x14)
+            map(KeyEvent.KEYCODE_SCROLL_LOCK, 0x91)
+            map(KeyEvent.KEYCODE_BREAK, 0x13)
+            map(KeyEvent.KEYCODE_SYSRQ, 0x2C)
+
+            when (profile) {
+                JIS -> {
+                    map(KeyEvent.KEYCODE_ZENKAKU_HANKAKU, 0x19) // VK_KANJI
+                    map(KeyEvent.KEYCODE_HENKAN, 0x1C) // VK_CONVERT
+                    map(KeyEvent.KEYCODE_MUHENKAN, 0x1D) // VK_NONCONVERT
+                    map(KeyEvent.KEYCODE_KATAKANA_HIRAGANA, 0x15) // VK_KANA
+                    map(KeyEvent.KEYCODE_YEN, 0xDC) // VK_OEM_5
+                    map(KeyEvent.KEYCODE_RO, 0xE2) // VK_OEM_102
+                    map(KeyEvent.KEYCODE_EISU, 0x14) // 英数 → Caps Lock 键位
+                }
+                KOREAN -> {
+                    map(KeyEvent.KEYCODE_LANGUAGE_SWITCH, 0x15) // VK_HANGUL
+                    map(KeyEvent.KEYCODE_KANA, 0x15)
+                }
+                US -> {}
+            }
+            return t
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.mstsc.client.ui.rdp
+
+import android.view.MotionEvent
+
+/**
+ * 拖拽轨迹重采样：读取 MotionEvent 中批量合并的历史样本（含时间戳），
+ * 按固定间隔在相邻样本间线性插值，输出等时距的轨迹点。
+ * 快速拖拽（绘图、框选）不再只剩每帧一个点，发送量也被间隔限定在上界内。
+ *
+ * 输出点的时间严格递增且晚于上一批的最后一个原始样本，调用方可在每批之后
+ * 再以普通移动发送当前位置（交给 [MouseMoveCoalescer] 限速），不会出现轨迹回退。
+ * 仅在主线程使用。
+ */
+internal class MotionResampler {
+
+    /** 重采样间隔（毫秒），<= 0 时原样输出每个样本 */
+    var intervalMs: Long = MouseMoveCoalescer.DEFAULT_INTERVAL_MS
+
+    private var prevT = 0L
+    private var prevX = 0f
+    private var prevY = 0f
+    private var nextT = 0L
+    private var out = FloatArray(32)
+    private var outCount = 0
+
+    /** 以 (t, x, y) 作为轨迹起点（该点由调用方自行发送） */
+    fun reset(t: Long, x: Float, y: Float) {
+        prevT = t
+        prevX = x
+        prevY = y
+        nextT = t + intervalMs.coerceAtLeast(0L)
+        outCount = 0
+    }
+
+    /**
+     * 处理一个 ACTION_MOVE 事件的全部样本（历史样本 + 当前样本），
+     * 返回本次产生的轨迹点数量，坐标通过 [x]/[y] 读取（视图坐标）。
+     */
+    fun add(event: MotionEvent): Int {
+        outCount = 0
+        for (h in 0 until event.historySize) {
+            addSample(event.getHistoricalEventTime(h), event.getHistoricalX(h), event.getHistoricalY(h))
+        }
+        addSample(event.eventTime, event.x, event.y)
+        return outCount
+    }
+
+    fun x(i: Int): Float = out[i * 2]
+
+    fun y(i: Int): Float = out[i * 2 + 1]
+
+    private fun addSample(t: Long, x: Float, y: Float) {
+        if (t <= prevT) {
+            prevX = x
+            prevY = y
+            return
+        }
+        val interval = intervalMs
+        if (interval <= 0) {
+            emit(x, y)
+        } else {
+            // 长时间停顿后不补发停顿期间的插值点，直接从当前样本重新计时
+            if (t - nextT > MAX_GAP_MS) nextT = t
+            while (nextT <= t) {
+                val f = (nextT - prevT).toFloat() / (t - prevT)
+                emit(prevX + (x - prevX) * f, prevY + (y - prevY) * f)
+                nextT += interval
+            }
+        }
+        prevT = t
+        prevX = x
+        prevY = y
+    }
+
+    private fun emit(x: Float, y: Float) {
+        if (out.size < (outCount + 1) * 2) out = out.copyOf(out.size * 2)
+        out[outCount * 2] = x
+        out[outCount * 2 + 1] = y
+        outCount++
+    }
+
+    private companion object {
+        const val MAX_GAP_MS = 100L
+    }
+}
@@ -0,0 +1,72 @@
+package com.mstsc.client.ui.rdp
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+
+/**
+ * 鼠标移动合并：每个 [intervalMs] 内至多发出一次移动，期间到达的移动只保留最新坐标，
+ * 在间隔到期时补发，高刷新率触屏与游戏鼠标不再每个 MotionEvent 都产生一个输入 PDU。
+ *
+ * 仅在主线程使用。按键、滚轮等其他事件入队前必须先调用 [flush]，
+ * 保证被暂存的最后一次移动排在它们之前，不改变事件顺序，也不丢弃任何按键变化。
+ */
+internal class MouseMoveCoalescer(private val sink: Sink) {
+
+    fun interface Sink {
+        fun onMove(x: Int, y: Int)
+    }
+
+    /** 合并间隔（毫秒），<= 0 表示不合并，每次移动立即发出 */
+    var intervalMs: Long = DEFAULT_INTERVAL_MS
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val flushRunnable = Runnable { flush() }
+    private var lastSentAt = 0L
+    private var pending = false
+    private var pendingX = 0
+    private var pendingY = 0
+
+    fun move(x: Int, y: Int) {
+        val now = SystemClock.uptimeMillis()
+        val interval = intervalMs
+        if (!pending && (interval <= 0 || now - lastSentAt >= interval)) {
+            lastSentAt = now
+            sink.onMove(x, y)
+            return
+        }
+        pendingX = x
+        pendingY = y
+        if (!pending) {
+            pending = true
+            handler.postAtTime(flushRunnable, lastSentAt + interval)
+        }
+    }
+
+    /** 先补发暂存的移动，再立即发出 (x, y)，并以此刻重新计算合并间隔（用于已重采样的轨迹点） */
+    fun sendNow(x: Int, y: Int) {
+        flush()
+        lastSentAt = SystemClock.uptimeMillis()
+        sink.onMove(x, y)
+    }
+
+    /** 立即发出暂存的移动（如有） */
+    fun flush() {
+        if (!pending) return
+        pending = false
+        handler.removeCallbacks(flushRunnable)
+        lastSentAt = SystemClock.uptimeMillis()
+        sink.onMove(pendingX, pendingY)
+    }
+
+    /** 丢弃暂存的移动（断开连接时调用） */
+    fun cancel() {
+        pending = false
+        handler.removeCallbacks(flushRunnable)
+    }
+
+    companion object {
+        /** 默认约 125Hz，与常见鼠标回报率相当，远低于 240Hz 触屏的事件频率 */
+        const val DEFAULT_INTERVAL_MS = 8L
+    }
+}
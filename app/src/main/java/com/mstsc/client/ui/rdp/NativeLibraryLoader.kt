@@ -0,0 +1,66 @@
+package com.mstsc.client.ui.rdp
+
+import android.os.Process
+import android.util.Log
+import com.freerdp.freerdpcore.services.LibFreeRDP
+import kotlinx.coroutines.CompletableDeferred
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * FreeRDP 原生库预加载：LibFreeRDP 的 static 块会加载四个 .so（含重定位）、校验版本并探测 H.264，
+ * 首次触发较慢。应用启动时在后台线程提前完成，首次连接时只需等待结果，不再占用主线程。
+ */
+internal object NativeLibraryLoader {
+    private const val TAG = "NativeLibraryLoader"
+
+    private val started = AtomicBoolean(false)
+    private val loaded = CompletableDeferred<Boolean>()
+    /** 预加载线程的 tid，0 表示尚未运行；有人等待时据此把它提回默认优先级 */
+    @Volatile
+    private var loaderTid = 0
+    @Volatile
+    private var awaited = false
+
+    /** 启动后台加载；重复调用无副作用 */
+    fun preload() {
+        if (!started.compareAndSet(false, true)) return
+        Thread({
+            loaderTid = Process.myTid()
+            // 启动阶段让出 CPU；先登记 tid 再降级并复查，与 await 的提级无论谁先发生都不会停留在后台优先级
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            if (awaited) Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT)
+            loaded.complete(load())
+        }, "RdpNativePreload").start()
+    }
+
+    /** 挂起等待加载结果；尚未开始时立即开始。加载已处于首次连接的关键路径上，提回默认优先级 */
+    suspend fun await(): Boolean {
+        preload()
+        if (!loaded.isCompleted && !awaited) {
+            awaited = true
+            val tid = loaderTid
+            if (tid != 0) {
+                try {
+                    Process.setThreadPriority(tid, Process.THREAD_PRIORITY_DEFAULT)
+                } catch (e: Exception) {
+                    Log.w(TAG, "failed to raise preload priority", e)
+                }
+            }
+        }
+        return loaded.await()
+    }
+
+    private fun load(): Boolean {
+        val startNs = System.nanoTime()
+        return try {
+            // 触发 LibFreeRDP 类初始化，其 static 块会加载 freerdp-android 等 .so
+            Class.forName(LibFreeRDP::class.java.name, true, LibFreeRDP::class.java.classLoader)
+            LibFreeRDP.isLoaded()
+        } catch (e: Throwable) {
+            Log.e(TAG, "FreeRDP native library unavailable", e)
+            false
+        } finally {
+            Log.i(TAG, "native preload took ${(System.nanoTime() - startNs) / 1_000_000}ms")
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.mstsc.client.ui.rdp
+
+import android.content.Context
+import android.util.Log
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * 持久化位图缓存文件管理：每个会话键（主机 + 端口 + 账号）一个缓存文件，放在 filesDir/rdp_cache 下，
+ * native 在连接时读入、断开时写回，重连后服务端不必重发工具栏、图标与背景等已缓存的图块。
+ *
+ * 同一文件同时只交给一个会话（[acquire] 到 [release]），避免两个 native 实例交错写回同一文件；
+ * 被占用时新会话不使用持久化缓存。
+ *
+ * 所有缓存合计不超过 [MAX_TOTAL_BYTES]，超出时按最近使用时间（文件修改时间）淘汰最久未用的文件。
+ * 文件读写都在调用方线程，调用方应在后台线程调用 [trim]。
+ */
+internal object PersistentCacheStore {
+    private const val TAG = "PersistentCacheStore"
+    private const val DIR_NAME = "rdp_cache"
+    private const val SUFFIX = ".bmc"
+    /** 所有设备缓存文件的合计上限 */
+    private const val MAX_TOTAL_BYTES = 96L * 1024 * 1024
+
+    /** 已交给会话、尚未 [release] 的缓存文件 */
+    private val inUse = HashSet<File>()
+
+    /**
+     * 取得会话的缓存文件，标记为占用与最近使用（文件可能尚不存在，由 native 在首次断开时创建）；
+     * 同一文件正被其他会话使用时返回 null，本次连接不使用持久化缓存。
+     */
+    fun acquire(context: Context, host: String, port: Int, username: String): File? {
+        val file = File(dir(context), digest("${host.lowercase()}:$port") + "_" + digest(username) + SUFFIX)
+        synchronized(inUse) {
+            if (!inUse.add(file)) return null
+        }
+        if (file.exists()) file.setLastModified(System.currentTimeMillis())
+        return file
+    }
+
+    /** native 实例释放（缓存已写回）后归还文件 */
+    fun release(file: File) {
+        synchronized(inUse) { inUse.remove(file) }
+    }
+
+    /** 设备被删除时一并删除其所有账号的缓存 */
+    fun delete(context: Context, host: String, port: Int) {
+        val prefix = digest("${host.lowercase()}:$port") + "_"
+        dir(context).listFiles { f -> f.name.startsWith(prefix) && f.name.endsWith(SUFFIX) }?.forEach { it.delete() }
+    }
+
+    /** 合计超出上限时从最久未使用的缓存开始删除；keep 及其他会话正在使用的文件不会被删除 */
+    fun trim(context: Context, keep: File? = null) {
+        val files = dir(context).listFiles { f -> f.isFile && f.name.endsWith(SUFFIX) } ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= MAX_TOTAL_BYTES) return
+        for (f in files.sortedBy { it.lastModified() }) {
+            if (total <= MAX_TOTAL_BYTES) break
+            if (f == keep || synchronized(inUse) { f in inUse }) continue
+            val size = f.length()
+            if (f.delete()) {
+                total -= size
+                Log.i(TAG, "evicted ${f.name} ($size bytes)")
+            }
+        }
+    }
+
+    private fun dir(context: Context): File =
+        File(context.filesDir, DIR_NAME).apply { mkdirs() }
+
+    /** 主机名与账号可能含不适合作文件名的字符，取摘要作为文件名 */
+    private fun digest(value: String): String {
+        val digest = MessageDigest.getInstance("SHA-1").digest(value.toByteArray())
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+}
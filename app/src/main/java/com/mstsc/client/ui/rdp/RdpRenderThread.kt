@@ -0,0 +1,106 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Rect
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+import android.view.Choreographer
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 远程画面渲染线程：独占 Surface 的全部绘制（lockCanvas/drawBitmap/unlockCanvasAndPost）。
+ * 线程自带 Looper 与 Choreographer，按 vsync 合并脏区域后至多绘制一次；
+ * UI 线程与 native 线程只投递脏区域，不再直接触碰 Surface。
+ *
+ * 生命周期与 Surface 一致：surfaceCreated 时 [startRendering]，surfaceDestroyed 时 [stopRendering]。
+ * drawFrame 的 damage 为帧缓冲像素变化区域（可能为 null），fullRepaint 表示布局变化需整屏重绘。
+ */
+internal class RdpRenderThread(
+    private val drawFrame: (damage: Rect?, fullRepaint: Boolean) -> Unit,
+    private val onRelease: () -> Unit
+) : HandlerThread("RdpRender", Process.THREAD_PRIORITY_DISPLAY) {
+
+    /** 待绘制的脏区域（帧缓冲坐标）：任意线程累加，vsync 回调中一次取走；以自身为锁 */
+    private val pendingDamage = Rect()
+    private var fullRedrawPending = false
+    /** 是否已向 Choreographer 预约下一帧，保证每个 vsync 至多绘制一次 */
+    private val frameScheduled = AtomicBoolean(false)
+    private val frameCallback = Choreographer.FrameCallback { renderPendingFrame() }
+
+    @Volatile
+    private var handler: Handler? = null
+
+    fun startRendering() {
+        start()
+        handler = Handler(looper)
+    }
+
+    /**
+     * 停止渲染并等待线程退出。必须在 surfaceDestroyed 返回前调用，
+     * 保证 Surface 失效后不再有进行中的绘制；退出前在本线程执行 onRelease 释放渲染器资源。
+     */
+    fun stopRendering() {
+        handler?.post(onRelease)
+        handler = null
+        quitSafely()
+        try {
+            join()
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    /** 累加帧缓冲脏区域，在下一次 vsync 时合并绘制 */
+    fun invalidate(x: Int, y: Int, w: Int, h: Int) {
+        synchronized(pendingDamage) {
+            pendingDamage.union(x, y, x + w, y + h)
+        }
+        scheduleFrame()
+    }
+
+    /** 下一次 vsync 时整屏重绘（布局变化，像素未必变化） */
+    fun invalidateAll() {
+        synchronized(pendingDamage) {
+            fullRedrawPending = true
+        }
+        scheduleFrame()
+    }
+
+    /** 丢弃尚未绘制的脏区域（断开连接时调用） */
+    fun clearDamage() {
+        synchronized(pendingDamage) {
+            pendingDamage.setEmpty()
+            fullRedrawPending = false
+        }
+    }
+
+    /** 在渲染线程执行一次性绘制（如占位提示） */
+    fun runOnRenderThread(block: () -> Unit) {
+        handler?.post(block)
+    }
+
+    private fun scheduleFrame() {
+        val h = handler ?: return
+        if (frameScheduled.compareAndSet(false, true)) {
+            // Choreographer 与 Looper 线程绑定，需在本线程内获取与预约
+            if (!h.post { Choreographer.getInstance().postFrameCallback(frameCallback) }) {
+                frameScheduled.set(false)
+            }
+        }
+    }
+
+    private fun renderPendingFrame() {
+        // 先清预约标记再取脏区域，取走之后到达的更新会预约下一帧，不会丢失
+        frameScheduled.set(false)
+        var damage: Rect? = null
+        var full = false
+        synchronized(pendingDamage) {
+            if (!fullRedrawPending && pendingDamage.isEmpty) return
+            damage = if (pendingDamage.isEmpty) null else Rect(pendingDamage)
+            full = fullRedrawPending
+            fullRedrawPending = false
+            pendingDamage.setEmpty()
+        }
+        drawFrame(damage, full)
+    }
+}
@@ -5,6 +5,7 @@ import android.os.Bundle
 import android.view.KeyEvent
 import android.view.MotionEvent
 import android.view.View
+import android.view.ViewConfiguration
 import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
@@ -23,6 +24,8 @@ class RdpSessionActivity : AppCompatActivity() {
     private lateinit var binding: ActivityRdpSessionBinding
     private var connectionState: ConnectionState = ConnectionState.Idle
     private var reconnectOnResume = false
+    /** 会话已转入后台保持，销毁时不断开 */
+    private var sessionParked = false
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -40,14 +43,22 @@ class RdpSessionActivity : AppCompatActivity() {
         }
 
         binding.btnFloatingDisconnect.setOnClickListener { disconnectAndFinish() }
+        // 长按悬浮按钮：会话转入后台保持，返回设备列表，可切换到其他设备后再回来
+        binding.btnFloatingDisconnect.setOnLongClickListener {
+            parkAndFinish()
+            true
+        }
         setupDraggableDisconnectButton()
 
+        binding.rdpSurface.sessionKey = "$deviceId|$username"
         binding.rdpSurface.host = parseHost(deviceId)
         binding.rdpSurface.port = parsePort(deviceId)
         binding.rdpSurface.username = username
         binding.rdpSurface.password = password
         binding.rdpSurface.domain = parseDomain(username)
         binding.rdpSurface.plainUsername = parsePlainUsername(username)
+        binding.rdpSurface.keyboardLayout = KeyboardLayoutProfile.fromName(intent.getStringExtra(EXTRA_KEYBOARD_LAYOUT))
+        binding.rdpSurface.connectionPreset = ConnectionPreset.fromName(intent.getStringExtra(EXTRA_CONNECTION_PRESET))
         binding.rdpSurface.onConnectionStateChanged = { state, message ->
             runOnUiThread {
                 connectionState = state
@@ -102,9 +113,20 @@ class RdpSessionActivity : AppCompatActivity() {
         finish()
     }
 
+    private fun parkAndFinish() {
+        if (connectionState != ConnectionState.Connected) return
+        sessionParked = true
+        binding.rdpSurface.detachSession()
+        Toast.makeText(this, R.string.session_parked, Toast.LENGTH_SHORT).show()
+        finish()
+    }
+
     override fun onDestroy() {
         // Activity 真正销毁时释放连接；切后台仅 surface 销毁时不会断开，避免返回黑屏
-        if (isFinishing) binding.rdpSurface.disconnect()
+        // 配置变更重建时会话转入后台，由新实例重新绑定
+        if (!sessionParked) {
+            if (isFinishing) binding.rdpSurface.disconnect() else binding.rdpSurface.detachSession()
+        }
         super.onDestroy()
     }
 
@@ -114,9 +136,12 @@ class RdpSessionActivity : AppCompatActivity() {
             binding.rdpSurface.requestFocus()
             if (reconnectOnResume) {
                 reconnectOnResume = false
-                lifecycleScope.launch {
-                    setState(ConnectionState.Connecting, "前台恢复，正在重连…")
-                    binding.rdpSurface.reconnect()
+                // 会话仍在（含 native 自动重连中）时直接恢复画面，只有会话已结束才完整登录，期间保留最后一帧
+                if (!binding.rdpSurface.resumeSession()) {
+                    lifecycleScope.launch {
+                        setState(ConnectionState.Connecting, "前台恢复，正在重连…")
+                        binding.rdpSurface.reconnect(keepLastFrame = true)
+                    }
                 }
             }
         }
@@ -167,7 +192,13 @@ class RdpSessionActivity : AppCompatActivity() {
                     true
                 }
                 MotionEvent.ACTION_UP -> {
-                    if (!moved) v.performClick()
+                    if (!moved) {
+                        if (event.eventTime - event.downTime >= ViewConfiguration.getLongPressTimeout()) {
+                            v.performLongClick()
+                        } else {
+                            v.performClick()
+                        }
+                    }
                     true
                 }
                 else -> false
@@ -219,5 +250,7 @@ class RdpSessionActivity : AppCompatActivity() {
         const val EXTRA_DEVICE_ID = "device_id"
         const val EXTRA_USERNAME = "username"
         const val EXTRA_PASSWORD = "password"
+        const val EXTRA_KEYBOARD_LAYOUT = "keyboard_layout"
+        const val EXTRA_CONNECTION_PRESET = "connection_preset"
     }
 }
@@ -0,0 +1,131 @@
+package com.mstsc.client.ui.rdp
+
+import android.util.Log
+
+/**
+ * 多会话管理：进程内同时保持多个已连接的 RDP 会话，按会话键（设备标识 + 账号）索引。
+ *
+ * - 同一时刻至多一个前台会话绑定到 RdpSurfaceView，按 vsync 全速渲染；
+ * - 其余为后台会话：已从视图解绑并抑制画面输出（帧缓冲照常更新、不绘制），连接与服务端会话保持不变，
+ *   切回时立即整幅刷新，无需重新连接；
+ * - 所有会话的帧缓冲合计不超过 [framebufferBudgetBytes]，超出时按最久未使用断开后台会话。
+ */
+internal object RdpSessionManager {
+    private const val TAG = "RdpSessionManager"
+    /** 默认预算：约可同时保持四个 1080p 双缓冲会话 */
+    private const val DEFAULT_BUDGET_BYTES = 192L * 1024 * 1024
+
+    /** 访问顺序排列，队首为最久未使用 */
+    private val sessions = LinkedHashMap<String, RdpSurfaceView.RdpEngine>(8, 0.75f, true)
+    private var foregroundKey: String? = null
+
+    /** 会话数变化回调（参数为当前存活会话数），在调用方线程执行；由 Application 设置以维持前台服务 */
+    @Volatile
+    var onSessionCountChanged: ((Int) -> Unit)? = null
+
+    var framebufferBudgetBytes: Long = DEFAULT_BUDGET_BYTES
+        set(value) {
+            synchronized(this) { field = value.coerceAtLeast(0L) }
+            enforceBudget()
+        }
+
+    /** 取得保持中的会话并标记为最近使用；不存在时返回 null */
+    @Synchronized
+    fun get(key: String): RdpSurfaceView.RdpEngine? = sessions[key]
+
+    /** 登记一个新连接成功的会话并设为前台；同键的旧会话被替换并断开 */
+    fun add(key: String, engine: RdpSurfaceView.RdpEngine) {
+        val replaced = synchronized(this) {
+            foregroundKey = key
+            sessions.put(key, engine)
+        }
+        // 服务端结束的会话不再保持：移出管理并释放 native 实例与帧缓冲
+        val onTerminated = {
+            if (remove(key, engine)) {
+                Log.i(TAG, "session $key ended by server")
+                disconnectAsync(engine)
+            }
+        }
+        engine.onTerminated = onTerminated
+        // 登记前已结束的会话收不到回调，这里补一次
+        if (!engine.isConnected) onTerminated()
+        if (replaced != null && replaced !== engine) disconnectAsync(replaced)
+        enforceBudget()
+        notifyCountChanged()
+    }
+
+    @Synchronized
+    fun setForeground(key: String) {
+        sessions[key]
+        foregroundKey = key
+    }
+
+    /** 会话转入后台（仍保持连接） */
+    @Synchronized
+    fun moveToBackground(key: String) {
+        if (foregroundKey == key) foregroundKey = null
+    }
+
+    /** 移出管理（调用方负责断开） */
+    fun remove(key: String): RdpSurfaceView.RdpEngine? {
+        val removed = synchronized(this) {
+            if (foregroundKey == key) foregroundKey = null
+            sessions.remove(key)
+        }
+        if (removed != null) notifyCountChanged()
+        return removed
+    }
+
+    /** 仅当 key 仍对应 engine 时移出管理，避免误删同键的新会话；返回是否移除 */
+    private fun remove(key: String, engine: RdpSurfaceView.RdpEngine): Boolean {
+        val removed = synchronized(this) {
+            if (sessions[key] !== engine) return false
+            if (foregroundKey == key) foregroundKey = null
+            sessions.remove(key)
+            true
+        }
+        if (removed) notifyCountChanged()
+        return removed
+    }
+
+    /** 断开并移除全部会话（包括前台会话，其视图随后会收到连接断开） */
+    fun disconnectAll() {
+        val all = synchronized(this) {
+            foregroundKey = null
+            sessions.values.toList().also { sessions.clear() }
+        }
+        all.forEach(::disconnectAsync)
+        if (all.isNotEmpty()) notifyCountChanged()
+    }
+
+    @Synchronized
+    fun liveSessionCount(): Int = sessions.size
+
+    /** 帧缓冲合计超出预算时，从最久未使用的后台会话开始断开；前台会话不会被断开 */
+    fun enforceBudget() {
+        val victims = ArrayList<RdpSurfaceView.RdpEngine>()
+        synchronized(this) {
+            var total = sessions.values.sumOf { it.framebufferBytes }
+            val it = sessions.entries.iterator()
+            while (total > framebufferBudgetBytes && it.hasNext()) {
+                val (key, engine) = it.next()
+                if (key == foregroundKey) continue
+                total -= engine.framebufferBytes
+                it.remove()
+                victims.add(engine)
+                Log.i(TAG, "framebuffer budget exceeded, closing background session $key")
+            }
+        }
+        victims.forEach(::disconnectAsync)
+        if (victims.isNotEmpty()) notifyCountChanged()
+    }
+
+    private fun notifyCountChanged() {
+        onSessionCountChanged?.invoke(liveSessionCount())
+    }
+
+    /** 断开会等待 native 线程退出，放到独立线程执行 */
+    private fun disconnectAsync(engine: RdpSurfaceView.RdpEngine) {
+        Thread({ engine.disconnect() }, "RdpSessionClose").start()
+    }
+}
@@ -0,0 +1,105 @@
+package com.mstsc.client.ui.rdp
+
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.app.PendingIntent
+import android.app.Service
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ServiceInfo
+import android.os.IBinder
+import android.util.Log
+import androidx.core.app.NotificationCompat
+import androidx.core.app.ServiceCompat
+import androidx.core.content.ContextCompat
+import com.mstsc.client.R
+import com.mstsc.client.ui.MainActivity
+
+/**
+ * 会话保活前台服务：[RdpSessionManager] 中有存活会话时以前台服务运行，
+ * 进程在切换应用、配置变更或内存紧张时不被回收，会话不必整体重连；最后一个会话结束后自行停止。
+ *
+ * 会话本身仍由 [RdpSessionManager] 持有，Activity 只负责把视图绑定/解绑到会话。
+ */
+class RdpSessionService : Service() {
+
+    override fun onBind(intent: Intent?): IBinder? = null
+
+    override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
+        if (intent?.action == ACTION_DISCONNECT_ALL) {
+            RdpSessionManager.disconnectAll()
+        }
+        val count = RdpSessionManager.liveSessionCount()
+        // 经 startForegroundService 启动后必须先进入前台，即便会话已在投递期间全部结束，否则系统会使应用崩溃
+        ensureChannel(this)
+        ServiceCompat.startForeground(
+            this, NOTIFICATION_ID, buildNotification(count),
+            ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE
+        )
+        if (count == 0) {
+            ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE)
+            stopSelf()
+        }
+        return START_NOT_STICKY
+    }
+
+    /** 用户从最近任务划掉应用视为退出：断开全部会话 */
+    override fun onTaskRemoved(rootIntent: Intent?) {
+        RdpSessionManager.disconnectAll()
+        super.onTaskRemoved(rootIntent)
+    }
+
+    private fun buildNotification(count: Int) = NotificationCompat.Builder(this, CHANNEL_ID)
+        .setSmallIcon(R.drawable.ic_launcher_foreground)
+        .setContentTitle(getString(R.string.session_service_title))
+        .setContentText(getString(R.string.session_service_text, count))
+        .setOngoing(true)
+        .setOnlyAlertOnce(true)
+        .setContentIntent(
+            PendingIntent.getActivity(
+                this, 0,
+                Intent(this, MainActivity::class.java).addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP),
+                PendingIntent.FLAG_IMMUTABLE
+            )
+        )
+        .addAction(
+            0, getString(R.string.session_service_disconnect_all),
+            PendingIntent.getService(
+                this, 1,
+                Intent(this, RdpSessionService::class.java).setAction(ACTION_DISCONNECT_ALL),
+                PendingIntent.FLAG_IMMUTABLE
+            )
+        )
+        .build()
+
+    companion object {
+        private const val TAG = "RdpSessionService"
+        private const val CHANNEL_ID = "rdp_sessions"
+        private const val NOTIFICATION_ID = 1
+        private const val ACTION_DISCONNECT_ALL = "com.mstsc.client.action.DISCONNECT_ALL"
+
+        /** 会话数变化时调用：有会话时启动/刷新前台服务，无会话时让服务自行停止 */
+        fun sync(context: Context, liveSessions: Int) {
+            val app = context.applicationContext
+            try {
+                val intent = Intent(app, RdpSessionService::class.java)
+                if (liveSessions > 0) ContextCompat.startForegroundService(app, intent) else app.startService(intent)
+            } catch (e: IllegalStateException) {
+                // Android 12+ 禁止从后台启动前台服务（如后台会话被预算淘汰时），下次回到前台再同步
+                Log.w(TAG, "cannot start session service now: ${e.message}")
+            }
+        }
+
+        private fun ensureChannel(context: Context) {
+            val nm = context.getSystemService(NotificationManager::class.java)
+            if (nm.getNotificationChannel(CHANNEL_ID) != null) return
+            nm.createNotificationChannel(
+                NotificationChannel(
+                    CHANNEL_ID,
+                    context.getString(R.string.session_service_channel),
+                    NotificationManager.IMPORTANCE_LOW
+                )
+            )
+        }
+    }
+}
@@ -7,12 +7,18 @@ import android.graphics.Color
 import android.graphics.Paint
 import android.graphics.Rect
 import android.graphics.RectF
+import android.text.InputType
+import android.os.SystemClock
 import android.util.AttributeSet
+import android.view.KeyCharacterMap
 import android.view.KeyEvent
 import android.view.MotionEvent
 import android.view.InputDevice
 import android.view.SurfaceHolder
 import android.view.SurfaceView
+import android.view.inputmethod.BaseInputConnection
+import android.view.inputmethod.EditorInfo
+import android.view.inputmethod.InputConnection
 import android.view.ScaleGestureDetector
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -41,6 +47,17 @@ class RdpSurfaceView @JvmOverloads constructor(
     var password: String = ""
     var domain: String? = null
     var plainUsername: String = ""
+    /** 会话键：用于在 [RdpSessionManager] 中查找保持中的会话，默认由主机、端口与账号组成 */
+    var sessionKey: String? = null
+
+    /** 键盘布局（按设备配置），在 connect 前设置 */
+    var keyboardLayout: KeyboardLayoutProfile = KeyboardLayoutProfile.US
+
+    /** 连接档位（按设备配置），在 connect 前设置 */
+    var connectionPreset: ConnectionPreset = ConnectionPreset.BROADBAND
+
+    /** 鼠标移动合并间隔（毫秒），<= 0 时每个移动事件都立即发送；在 connect 前设置 */
+    var mouseMoveIntervalMs: Long = MouseMoveCoalescer.DEFAULT_INTERVAL_MS
 
     var onConnectionStateChanged: ((RdpSessionActivity.ConnectionState, String?) -> Unit)? = null
     var onDiagnostics: ((String) -> Unit)? = null
@@ -51,10 +68,10 @@ class RdpSurfaceView @JvmOverloads constructor(
         color = Color.DKGRAY
         textSize = 48f
     }
+    /** 双指缩放调整本地视口（不再发送滚轮），以手势焦点为中心放大/缩小 */
     private val scaleDetector = ScaleGestureDetector(context, object : ScaleGestureDetector.SimpleOnScaleGestureListener() {
         override fun onScale(detector: ScaleGestureDetector): Boolean {
-            val (fx, fy) = viewToFb(detector.focusX.toInt(), detector.focusY.toInt())
-            engine?.sendMouseWheel(fx, fy, -detector.scaleFactor.toInt().coerceIn(-1, 1))
+            zoomViewport(detector.scaleFactor, detector.focusX, detector.focusY)
             return true
         }
     })
@@ -66,8 +83,14 @@ class RdpSurfaceView @JvmOverloads constructor(
     private var isDragging = false
     /** 本手势中是否已发送过左键按下（用于拖拽选中）；双指时绝不发左键，避免滚动误选中 */
     private var sentMouseDownThisGesture = false
-    /** 本手势是否出现过双指（双指滚动时不发任何左键事件） */
+    /** 本手势是否出现过双指（双指缩放/平移时不发任何左键事件） */
     private var multiTouchGesture = false
+    /** 双指平移时上一次的手指中心点；NaN 表示需重新取点（手指数变化时） */
+    private var lastFocusX = Float.NaN
+    private var lastFocusY = Float.NaN
+    /** 拖拽时对历史样本重采样，间隔与 mouseMoveIntervalMs 一致 */
+    private val dragResampler = MotionResampler()
+    private var dragPoints = IntArray(64)
 
     init {
         holder.addCallback(this)
@@ -76,22 +99,61 @@ class RdpSurfaceView @JvmOverloads constructor(
     }
 
     override fun surfaceCreated(holder: SurfaceHolder) {
-        drawRemoteFrame()
+        renderThread = RdpRenderThread(::drawRemoteFrame, ::releaseRenderer).also { it.startRendering() }
+        // 新 Surface 内容为空：先重绘仍持有的帧缓冲（含重连期间保留的上一会话最后一帧）
+        if (remoteFramebuffer != null) renderThread?.invalidateAll()
+        engine?.setOutputSuppressed(false)
     }
     override fun surfaceChanged(holder: SurfaceHolder, format: Int, width: Int, height: Int) {
-        drawRemoteFrame()
+        surfaceWidth = width.coerceAtLeast(1)
+        surfaceHeight = height.coerceAtLeast(1)
+        updateRenderRect()
+        renderThread?.invalidateAll()
     }
-    override fun surfaceDestroyed(holder: SurfaceHolder) {}
+    override fun surfaceDestroyed(holder: SurfaceHolder) {
+        // 切后台、锁屏时 Surface 销毁：停止接收画面更新，回到前台后整幅刷新
+        engine?.setOutputSuppressed(true)
+        // 等待渲染线程退出后再返回，保证 Surface 失效后没有进行中的绘制
+        renderThread?.stopRendering()
+        renderThread = null
+    }
+
+    /** Surface 是否已创建（主线程读取） */
+    internal val isSurfaceReady: Boolean
+        get() = renderThread != null
+
+    /** 渲染线程，仅在 Surface 存活期间存在；所有 Surface 绘制都在该线程执行 */
+    @Volatile
+    private var renderThread: RdpRenderThread? = null
+    /** 当前渲染器，仅在渲染线程创建与访问 */
+    private var renderer: RemoteRenderer? = null
+    /** Surface 尺寸（surfaceChanged 时更新），供渲染线程使用，避免跨线程读取 View 宽高 */
+    @Volatile
+    private var surfaceWidth = 1
+    @Volatile
+    private var surfaceHeight = 1
 
     /** 当前远程帧缓冲尺寸，用于触屏坐标换算到远程桌面坐标 */
     private var fbWidth = 0
     private var fbHeight = 0
 
-    /** 远程桌面画面 Bitmap，由 FreeRDP 回调更新，在此绘制到 Surface */
+    /** 远程桌面双缓冲帧缓冲，由 FreeRDP 回调写入 back，渲染线程读取 front 绘制到 Surface */
+    @Volatile
+    private var remoteFramebuffer: RemoteFramebuffer? = null
+    /**
+     * 保留显示的上一会话最后一帧（disconnect(keepLastFrame = true) 时接管，归本视图所有）；
+     * 新会话首帧到达前一直绘制它，之后回收到 BitmapPool
+     */
     @Volatile
-    private var remoteBitmap: Bitmap? = null
+    private var retainedFramebuffer: RemoteFramebuffer? = null
+    /** 保留上一帧期间新会话送来的帧缓冲，首帧到达后切换为当前帧缓冲（主线程） */
+    private var pendingFramebuffer: RemoteFramebuffer? = null
     @Volatile
     private var displayScale: Float = 1.0f
+    /** 本地视口：放大倍数与平移量（相对未放大时绘制区域左上角的偏移，<= 0），仅在主线程修改 */
+    private var viewportZoom = 1f
+    private var viewportPanX = 0f
+    private var viewportPanY = 0f
     @Volatile
     private var renderLeft = 0f
     @Volatile
@@ -100,6 +162,9 @@ class RdpSurfaceView @JvmOverloads constructor(
     private var renderWidth = 0f
     @Volatile
     private var renderHeight = 0f
+    /** 当前会话的延迟追踪器，由引擎在连接成功后设置；渲染线程在帧提交后回调 */
+    @Volatile
+    internal var latencyTracer: InputLatencyTracer? = null
     @Volatile
     private var connectStartedAtMs: Long = 0L
     @Volatile
@@ -113,13 +178,39 @@ class RdpSurfaceView @JvmOverloads constructor(
         fbHeight = h.coerceAtLeast(1)
     }
 
-    /** 设置远程画面 Bitmap（由 OnGraphicsResize 等调用），必须在主线程 */
-    fun setRemoteBitmap(bitmap: Bitmap?) {
-        remoteBitmap = bitmap
-        if (bitmap != null) drawRemoteFrame()
+    /** 设置远程帧缓冲（由连接成功与 OnGraphicsResize 调用），必须在主线程 */
+    internal fun setRemoteFramebuffer(fb: RemoteFramebuffer?) {
+        val retained = retainedFramebuffer
+        if (retained != null && fb != null && firstFrameAtMs == 0L) {
+            // 新会话尚未出首帧（帧缓冲仍是黑的）：继续显示上一会话的最后一帧
+            pendingFramebuffer = fb
+            return
+        }
+        remoteFramebuffer = fb
+        if (retained != null) {
+            retainedFramebuffer = null
+            pendingFramebuffer = null
+            // 等进行中的绘制结束后归还
+            retained.recycle()
+        }
+        if (fb != null) {
+            // 池化复用时新帧缓冲可能与旧的是同一 Bitmap 对象，需让渲染器丢弃已上传的内容
+            renderThread?.runOnRenderThread { renderer?.invalidateContent() }
+            renderThread?.invalidateAll()
+        }
+    }
+
+    /** 丢弃保留的上一会话最后一帧；待切换的帧缓冲仍归引擎所有，不在此回收 */
+    private fun dropRetainedFramebuffer() {
+        retainedFramebuffer?.let {
+            if (remoteFramebuffer === it) remoteFramebuffer = null
+            it.recycle()
+        }
+        retainedFramebuffer = null
+        pendingFramebuffer = null
     }
 
-    /** 引擎在收到并应用图像更新后调用，用于首帧与帧计数诊断 */
+    /** 引擎在收到并应用图像更新后调用（native 线程），用于首帧与帧计数诊断 */
     fun onFrameUpdated(x: Int, y: Int, w: Int, h: Int) {
         val now = System.currentTimeMillis()
         frameCount += 1
@@ -127,39 +218,128 @@ class RdpSurfaceView @JvmOverloads constructor(
             firstFrameAtMs = now
             val cost = (firstFrameAtMs - connectStartedAtMs).coerceAtLeast(0)
             onDiagnostics?.invoke("已收到首帧，耗时 ${cost}ms，区域 ${x},${y} ${w}x${h}")
+            // 首帧已写入新帧缓冲，此时才替换保留的上一会话画面
+            if (retainedFramebuffer != null) post { pendingFramebuffer?.let(::setRemoteFramebuffer) }
         }
     }
 
-    /** 将当前 remoteBitmap 绘制到 Surface（主线程调用，供 OnGraphicsUpdate 回调后刷新） */
-    fun drawRemoteFrame() {
-        val bmp = remoteBitmap ?: return
-        val surface = holder.surface
-        if (!surface.isValid) return
-        val canvas = surface.lockCanvas(null) ?: return
+    /** 由引擎在任意线程调用：累加帧缓冲脏区域，由渲染线程在下一次 vsync 时合并绘制 */
+    fun invalidateRemote(x: Int, y: Int, w: Int, h: Int) {
+        renderThread?.invalidate(x, y, w, h)
+    }
+
+    /** 由引擎在任意线程调用：下一次 vsync 时整屏重绘 */
+    fun invalidateRemoteFully() {
+        renderThread?.invalidateAll()
+    }
+
+    /**
+     * 渲染后端选择：默认 GLES（纹理增量上传 + GPU 缩放），
+     * EGL 初始化失败或帧缓冲超出最大纹理尺寸时自动回退到 SOFTWARE。
+     */
+    var renderBackend: RenderBackend = RenderBackend.GLES
+        set(value) {
+            if (field == value) return
+            field = value
+            renderThread?.runOnRenderThread { releaseRenderer() }
+            renderThread?.invalidateAll()
+        }
+
+    /** 仅在渲染线程调用：按需创建当前后端对应的渲染器 */
+    private fun obtainRenderer(): RemoteRenderer {
+        renderer?.let { return it }
+        val r = when (renderBackend) {
+            RenderBackend.GLES -> GlesRenderer.create(holder) ?: CanvasRenderer(holder)
+            RenderBackend.SOFTWARE -> CanvasRenderer(holder)
+        }
+        renderer = r
+        return r
+    }
+
+    private fun releaseRenderer() {
+        renderer?.release()
+        renderer = null
+    }
+
+    /**
+     * 将当前远程帧缓冲的 front 绘制到 Surface（仅在渲染线程调用，由 vsync 回调触发）。
+     * damage 为帧缓冲坐标下的像素更新区域，fullRepaint 表示布局变化需整屏重绘。
+     */
+    private fun drawRemoteFrame(damage: Rect?, fullRepaint: Boolean) {
+        val fb = remoteFramebuffer ?: return
+        if (!holder.surface.isValid) return
+        val vw = surfaceWidth
+        val vh = surfaceHeight
+        val dst = RectF(renderLeft, renderTop, renderLeft + renderWidth, renderTop + renderHeight)
+        val frame = fb.lockFront() ?: return
         try {
-            canvas.drawColor(Color.BLACK)
-            val vw = width.coerceAtLeast(1)
-            val vh = height.coerceAtLeast(1)
-            val src = Rect(0, 0, bmp.width, bmp.height)
-            val dw = vw * displayScale
-            val dh = vh * displayScale
-            val left = (vw - dw) / 2f
-            val top = (vh - dh) / 2f
-            renderLeft = left
-            renderTop = top
-            renderWidth = dw
-            renderHeight = dh
-            val dst = RectF(left, top, left + dw, top + dh)
-            canvas.drawBitmap(bmp, src, dst, null)
+            if (!obtainRenderer().drawFrame(frame, damage, fullRepaint, dst, vw, vh)) {
+                // 当前后端无法处理该帧缓冲（如超出 GPU 最大纹理尺寸），回退到软件渲染并整屏重绘
+                releaseRenderer()
+                val fallback = CanvasRenderer(holder)
+                renderer = fallback
+                fallback.drawFrame(frame, null, true, dst, vw, vh)
+            }
         } finally {
-            surface.unlockCanvasAndPost(canvas)
+            fb.unlockFront()
         }
+        latencyTracer?.onFrameRendered(damage, fullRepaint)
     }
 
-    /** 全屏/缩小显示切换：默认全屏，点击后缩小到 80% */
+    /**
+     * 按当前 Surface 尺寸、displayScale 与本地视口计算整幅远程画面在视图中的绘制区域（主线程）。
+     * 放大时绘制区域大于视图，平移量被限制在画面边缘不露出空白的范围内。
+     */
+    private fun updateRenderRect() {
+        val vw = surfaceWidth
+        val vh = surfaceHeight
+        val baseW = vw * displayScale
+        val baseH = vh * displayScale
+        val dw = baseW * viewportZoom
+        val dh = baseH * viewportZoom
+        viewportPanX = viewportPanX.coerceIn(baseW - dw, 0f)
+        viewportPanY = viewportPanY.coerceIn(baseH - dh, 0f)
+        renderLeft = (vw - baseW) / 2f + viewportPanX
+        renderTop = (vh - baseH) / 2f + viewportPanY
+        renderWidth = dw
+        renderHeight = dh
+    }
+
+    /** 以视图坐标 (focusX, focusY) 为中心缩放本地视口，焦点下的远程像素保持不动 */
+    private fun zoomViewport(factor: Float, focusX: Float, focusY: Float) {
+        val zoom = (viewportZoom * factor).coerceIn(1f, MAX_VIEWPORT_ZOOM)
+        if (zoom == viewportZoom) return
+        val applied = zoom / viewportZoom
+        // 新左上角 = 焦点 - (焦点 - 旧左上角) * 实际缩放比；平移量与左上角同步变化
+        viewportPanX = focusX - (focusX - renderLeft) * applied - (renderLeft - viewportPanX)
+        viewportPanY = focusY - (focusY - renderTop) * applied - (renderTop - viewportPanY)
+        viewportZoom = zoom
+        updateRenderRect()
+        renderThread?.invalidateAll()
+    }
+
+    /** 平移本地视口（视图像素），未放大时无效果 */
+    private fun panViewport(dx: Float, dy: Float) {
+        if (viewportZoom <= 1f) return
+        viewportPanX += dx
+        viewportPanY += dy
+        updateRenderRect()
+        renderThread?.invalidateAll()
+    }
+
+    /** 恢复未放大的视口 */
+    fun resetViewport() {
+        viewportZoom = 1f
+        viewportPanX = 0f
+        viewportPanY = 0f
+        updateRenderRect()
+        renderThread?.invalidateAll()
+    }
+
+    /** 全屏/缩小显示切换：默认全屏，点击后缩小到 80%；切换时同时复位本地视口 */
     fun toggleDisplayScale(): Boolean {
         displayScale = if (displayScale >= 0.99f) 0.8f else 1.0f
-        drawRemoteFrame()
+        resetViewport()
         return displayScale < 0.99f
     }
 
@@ -172,6 +352,21 @@ class RdpSurfaceView @JvmOverloads constructor(
             connectStartedAtMs = System.currentTimeMillis()
             firstFrameAtMs = 0L
             frameCount = 0
+            val key = resolveSessionKey()
+            val live = RdpSessionManager.get(key)
+            if (live != null && live.isConnected) {
+                // 后台保持的会话：直接绑定到本视图，无需重新连接
+                engine = live
+                live.attachView(this)
+                RdpSessionManager.setForeground(key)
+                onConnectionStateChanged?.invoke(RdpSessionActivity.ConnectionState.Connected, null)
+                return@launch
+            }
+            if (live != null) {
+                // 后台期间已被服务端断开，释放后重新连接
+                RdpSessionManager.remove(key)
+                withContext(Dispatchers.IO) { live.disconnect() }
+            }
             val eng = createEngine()
             engine = eng
             if (eng == null) {
@@ -182,6 +377,8 @@ class RdpSurfaceView @JvmOverloads constructor(
                 drawPlaceholder("请先放入 RDP 原生库\n见 README / RDP直连说明")
                 return@launch
             }
+            // 后台发起的连接（Surface 尚未创建）先不接收画面，surfaceCreated 时再整幅刷新
+            if (renderThread == null) eng.setOutputSuppressed(true)
             // 视图初次创建时 width/height 可能为 0，给出屏幕分辨率保底，避免请求 0x0 导致黑屏
             val w = width.takeIf { it > 0 } ?: resources.displayMetrics.widthPixels
             val h = height.takeIf { it > 0 } ?: resources.displayMetrics.heightPixels
@@ -189,6 +386,7 @@ class RdpSurfaceView @JvmOverloads constructor(
                 eng.connect(host, port, plainUsername, domain, password, w, h)
             }
             if (ok) {
+                RdpSessionManager.add(key, eng)
                 onConnectionStateChanged?.invoke(RdpSessionActivity.ConnectionState.Connected, null)
                 onDiagnostics?.invoke("RDP连接成功，等待首帧...")
                 scope.launch {
@@ -210,7 +408,7 @@ class RdpSurfaceView @JvmOverloads constructor(
         }
     }
 
-    /** 将视图坐标转换为远程桌面坐标（用于鼠标事件） */
+    /** 将视图坐标转换为远程桌面坐标（用于鼠标事件）；绘制区域已包含本地视口的缩放与平移 */
     private fun viewToFb(x: Int, y: Int): Pair<Int, Int> {
         if (fbWidth <= 0 || fbHeight <= 0) return x to y
         val rw = renderWidth.takeIf { it > 1f } ?: width.toFloat().coerceAtLeast(1f)
@@ -224,10 +422,33 @@ class RdpSurfaceView @JvmOverloads constructor(
         return (fx.coerceIn(0, fbWidth - 1) to fy.coerceIn(0, fbHeight - 1))
     }
 
-    fun disconnect() {
-        engine?.disconnect()
+    private fun resolveSessionKey(): String = sessionKey ?: "$host:$port|$username"
+
+    /**
+     * 断开当前会话并移出会话管理。
+     * keepLastFrame 时接管当前帧缓冲（引擎不再回收），Surface 重建后照常重绘，
+     * 直到新会话的首帧到达才换下并归还到 BitmapPool。
+     */
+    fun disconnect(keepLastFrame: Boolean = false) {
+        val eng = engine
+        eng?.let { RdpSessionManager.remove(resolveSessionKey()) }
+        val keep = keepLastFrame && remoteFramebuffer != null
+        if (keep) eng?.disconnect(keepFramebuffer = true) else eng?.disconnect()
         engine = null
-        remoteBitmap = null
+        latencyTracer = null
+        if (keep) {
+            if (retainedFramebuffer == null) {
+                retainedFramebuffer = remoteFramebuffer
+            } else {
+                // 仍在显示更早会话的最后一帧：本会话未出首帧的帧缓冲已移交过来，直接回收
+                pendingFramebuffer?.recycle()
+            }
+            pendingFramebuffer = null
+        } else {
+            renderThread?.clearDamage()
+            remoteFramebuffer = null
+            dropRetainedFramebuffer()
+        }
         firstFrameAtMs = 0L
         frameCount = 0
     }
@@ -235,9 +456,10 @@ class RdpSurfaceView @JvmOverloads constructor(
     /** 连接态下键盘事件统一走远端映射（硬键盘/部分系统按键） */
     fun handleKeyboardEvent(event: KeyEvent): Boolean {
         val eng = engine ?: return false
+        if (event.action != KeyEvent.ACTION_UP) eng.traceInput(event.eventTime, -1, -1)
         return when (event.action) {
-            KeyEvent.ACTION_DOWN -> eng.sendKeyEvent(event.keyCode, true)
-            KeyEvent.ACTION_UP -> eng.sendKeyEvent(event.keyCode, false)
+            KeyEvent.ACTION_DOWN -> eng.sendKeyEvent(event.keyCode, true) || sendUnmappedKey(eng, event, true)
+            KeyEvent.ACTION_UP -> eng.sendKeyEvent(event.keyCode, false) || sendUnmappedKey(eng, event, false)
             KeyEvent.ACTION_MULTIPLE -> {
                 val text = event.characters
                 if (text.isNullOrEmpty()) false else sendUnicodeText(text)
@@ -246,32 +468,81 @@ class RdpSurfaceView @JvmOverloads constructor(
         }
     }
 
-    /** 软键盘文本输入映射：按 Unicode 逐字发送到远端 */
+    /**
+     * 布局中没有虚拟键码映射的按键（如 KEYCODE_AT、KEYCODE_PLUS）按其产生的字符作为 Unicode 键盘事件发送，
+     * 不产生字符（或为组合重音）的按键返回 false。辅助平面字符只在按下时整字作为文本发送。
+     */
+    private fun sendUnmappedKey(eng: RdpEngine, event: KeyEvent, down: Boolean): Boolean {
+        val ch = event.unicodeChar
+        if (ch == 0 || (ch and KeyCharacterMap.COMBINING_ACCENT) != 0) return false
+        if (down) eng.traceInput(event.eventTime, -1, -1)
+        if (ch > 0xFFFF) return !down || eng.sendUnicodeText(String(Character.toChars(ch)))
+        return eng.sendUnicodeKey(ch, down)
+    }
+
+    /** 软键盘文本输入映射：整段文本作为一条输入事件入队，由发送线程逐个码元发送（支持代理对） */
     fun sendUnicodeText(text: String): Boolean {
         val eng = engine ?: return false
-        var sent = false
-        for (ch in text) {
-            val code = ch.code
-            val downOk = eng.sendUnicodeKey(code, true)
-            val upOk = eng.sendUnicodeKey(code, false)
-            sent = sent || (downOk && upOk)
+        return eng.sendUnicodeText(text)
+    }
+
+    override fun onCheckIsTextEditor(): Boolean = engine != null
+
+    /** 软键盘提交的文本经 [sendUnicodeText] 整段发送；删除、回车等仍以按键事件到达 dispatchKeyEvent */
+    override fun onCreateInputConnection(outAttrs: EditorInfo): InputConnection {
+        outAttrs.inputType = InputType.TYPE_CLASS_TEXT or InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS
+        outAttrs.imeOptions = EditorInfo.IME_FLAG_NO_EXTRACT_UI or EditorInfo.IME_FLAG_NO_FULLSCREEN
+        return object : BaseInputConnection(this, false) {
+            override fun commitText(text: CharSequence?, newCursorPosition: Int): Boolean {
+                if (!text.isNullOrEmpty()) {
+                    engine?.traceInput(SystemClock.uptimeMillis(), -1, -1)
+                    sendUnicodeText(text.toString())
+                }
+                // 清空本地编辑缓冲（含组合中的拼音等），避免随后的 finishComposingText 再次发送
+                editable?.clear()
+                return true
+            }
         }
-        return sent
     }
 
-    fun reconnect() {
-        disconnect()
+    /** 当前会话转入后台保持（不断开），视图随后可绑定其他会话或销毁 */
+    fun detachSession() {
+        val eng = engine ?: return
+        eng.detachView()
+        RdpSessionManager.moveToBackground(resolveSessionKey())
+        engine = null
+        latencyTracer = null
+        renderThread?.clearDamage()
+        remoteFramebuffer = null
+        dropRetainedFramebuffer()
+        firstFrameAtMs = 0L
+        frameCount = 0
+    }
+
+    fun reconnect(keepLastFrame: Boolean = false) {
+        disconnect(keepLastFrame)
         connect()
     }
 
-    private fun createEngine(): RdpEngine? {
+    /**
+     * 前台恢复的快速路径：实例仍处于连接状态（传输中断时 native 用服务端的自动重连 cookie 自行恢复，
+     * 期间状态不变）时沿用原实例与帧缓冲，只整屏重绘；返回 false 表示会话已结束，需调用方完整重连。
+     */
+    fun resumeSession(): Boolean {
+        val eng = engine ?: return false
+        if (!eng.isConnected) return false
+        invalidateRemoteFully()
+        return true
+    }
+
+    private suspend fun createEngine(): RdpEngine? {
+        // 原生库由 MstscApplication 启动时在后台预加载，这里只挂起等待结果
+        if (!NativeLibraryLoader.await()) return null
         return try {
-            // 触发 LibFreeRDP 类加载，其 static 块会加载 freerdp-android 等 .so
-            Class.forName("com.freerdp.freerdpcore.services.LibFreeRDP")
-            if (com.freerdp.freerdpcore.services.LibFreeRDP.isLoaded()) {
-                FreerdpEngine(context, this)
-            } else {
-                null
+            FreerdpEngine(context, this).also {
+                it.mouseMoveIntervalMs = mouseMoveIntervalMs
+                it.keyboardLayout = keyboardLayout
+                it.connectionProfile = connectionPreset.profile()
             }
         } catch (e: Throwable) {
             null
@@ -279,27 +550,32 @@ class RdpSurfaceView @JvmOverloads constructor(
     }
 
     private fun drawPlaceholder(text: String) {
-        holder.surface.let { surface ->
-            if (!surface.isValid) return
-            val canvas = surface.lockCanvas(null) ?: return
-            try {
-                canvas.drawColor(Color.BLACK)
-                val lines = text.split("\n")
-                var y = height / 2f - (lines.size * 30)
-                lines.forEach { line ->
-                    canvas.drawText(line, width / 2f - paint.measureText(line) / 2f, y, paint)
-                    y += 56f
-                }
-            } finally {
-                surface.unlockCanvasAndPost(canvas)
-            }
+        renderThread?.runOnRenderThread { drawPlaceholderNow(text) }
+    }
+
+    /** 在渲染线程把提示文字画到一张视图大小的 Bitmap 上，交给当前渲染器整屏绘制 */
+    private fun drawPlaceholderNow(text: String) {
+        if (!holder.surface.isValid) return
+        val vw = surfaceWidth
+        val vh = surfaceHeight
+        val bmp = Bitmap.createBitmap(vw, vh, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(bmp)
+        canvas.drawColor(Color.BLACK)
+        val lines = text.split("\n")
+        var y = vh / 2f - (lines.size * 30)
+        lines.forEach { line ->
+            canvas.drawText(line, vw / 2f - paint.measureText(line) / 2f, y, paint)
+            y += 56f
         }
+        val dst = RectF(0f, 0f, vw.toFloat(), vh.toFloat())
+        obtainRenderer().drawFrame(FrontFrame(vw, vh, bmp), null, true, dst, vw, vh)
     }
 
     override fun onTouchEvent(event: MotionEvent): Boolean {
         scaleDetector.onTouchEvent(event)
         if (event.pointerCount > 1) {
             multiTouchGesture = true
+            trackTwoFingerPan(event)
             return true
         }
 
@@ -326,8 +602,13 @@ class RdpSurfaceView @JvmOverloads constructor(
                 if (dx * dx + dy * dy > 36) isDragging = true
                 if (event.pointerCount == 1 && !multiTouchGesture) {
                     if (isDragging && !sentMouseDownThisGesture) {
+                        engine?.traceInput(event.eventTime, fx, fy)
                         engine?.sendMouseDown(fx, fy, 1)
                         sentMouseDownThisGesture = true
+                        dragResampler.intervalMs = mouseMoveIntervalMs
+                        dragResampler.reset(event.eventTime, event.x, event.y)
+                    } else if (sentMouseDownThisGesture) {
+                        sendResampledDrag(event)
                     }
                     engine?.sendMouseMove(fx, fy)
                 }
@@ -338,8 +619,10 @@ class RdpSurfaceView @JvmOverloads constructor(
             MotionEvent.ACTION_UP -> {
                 if (!multiTouchGesture) {
                     if (sentMouseDownThisGesture) {
+                        engine?.traceInput(event.eventTime, fx, fy)
                         engine?.sendMouseUp(fx, fy, 1)
                     } else if (!isDragging && (event.eventTime - event.downTime) < 300) {
+                        engine?.traceInput(event.eventTime, fx, fy)
                         engine?.sendMouseClick(fx, fy, 1)
                     }
                 }
@@ -353,6 +636,43 @@ class RdpSurfaceView @JvmOverloads constructor(
         return super.onTouchEvent(event)
     }
 
+    /** 把本事件的历史样本重采样为等时距轨迹点，换算到远程坐标后按顺序发送 */
+    private fun sendResampledDrag(event: MotionEvent) {
+        val eng = engine ?: return
+        val n = dragResampler.add(event)
+        if (n == 0) return
+        if (dragPoints.size < n * 2) dragPoints = IntArray(n * 2)
+        for (i in 0 until n) {
+            val (px, py) = viewToFb(dragResampler.x(i).toInt(), dragResampler.y(i).toInt())
+            dragPoints[i * 2] = px
+            dragPoints[i * 2 + 1] = py
+        }
+        eng.sendMouseMoves(dragPoints, n)
+    }
+
+    /** 双指移动时按手指中心点的位移平移视口；手指增减时重新取点，避免跳变 */
+    private fun trackTwoFingerPan(event: MotionEvent) {
+        when (event.actionMasked) {
+            MotionEvent.ACTION_POINTER_DOWN, MotionEvent.ACTION_POINTER_UP -> {
+                lastFocusX = Float.NaN
+                lastFocusY = Float.NaN
+            }
+            MotionEvent.ACTION_MOVE -> {
+                var sumX = 0f
+                var sumY = 0f
+                for (i in 0 until event.pointerCount) {
+                    sumX += event.getX(i)
+                    sumY += event.getY(i)
+                }
+                val fx = sumX / event.pointerCount
+                val fy = sumY / event.pointerCount
+                if (!lastFocusX.isNaN()) panViewport(fx - lastFocusX, fy - lastFocusY)
+                lastFocusX = fx
+                lastFocusY = fy
+            }
+        }
+    }
+
     override fun onGenericMotionEvent(event: MotionEvent): Boolean {
         // 外接鼠标滚轮/悬停移动事件映射
         if ((event.source and InputDevice.SOURCE_CLASS_POINTER) != 0) {
@@ -361,6 +681,7 @@ class RdpSurfaceView @JvmOverloads constructor(
                     val vScroll = event.getAxisValue(MotionEvent.AXIS_VSCROLL)
                     if (vScroll != 0f) {
                         val (fx, fy) = viewToFb(event.x.toInt(), event.y.toInt())
+                        engine?.traceInput(event.eventTime, fx, fy)
                         engine?.sendMouseWheel(fx, fy, if (vScroll > 0) 1 else -1)
                         return true
                     }
@@ -376,28 +697,64 @@ class RdpSurfaceView @JvmOverloads constructor(
     }
 
     override fun onKeyDown(keyCode: Int, event: KeyEvent?): Boolean {
-        if (engine?.sendKeyEvent(keyCode, true) == true) return true
+        engine?.traceInput(event?.eventTime ?: SystemClock.uptimeMillis(), -1, -1)
+        val eng = engine
+        if (eng != null && (eng.sendKeyEvent(keyCode, true) || (event != null && sendUnmappedKey(eng, event, true)))) return true
         return super.onKeyDown(keyCode, event)
     }
 
     override fun onKeyUp(keyCode: Int, event: KeyEvent?): Boolean {
-        if (engine?.sendKeyEvent(keyCode, false) == true) return true
+        val eng = engine
+        if (eng != null && (eng.sendKeyEvent(keyCode, false) || (event != null && sendUnmappedKey(eng, event, false)))) return true
         return super.onKeyUp(keyCode, event)
     }
 
+    private companion object {
+        /** 本地视口最大放大倍数 */
+        const val MAX_VIEWPORT_ZOOM = 4f
+    }
+
     /**
      * RDP 引擎抽象：连接、断开、鼠标与键盘事件。真实实现依赖 FreeRDP JNI。
      */
     interface RdpEngine {
-        fun connect(host: String, port: Int, username: String, domain: String?, password: String, width: Int, height: Int): Boolean
+        suspend fun connect(host: String, port: Int, username: String, domain: String?, password: String, width: Int, height: Int): Boolean
         fun disconnect()
+        /**
+         * keepFramebuffer 为 true 时不回收已推送给视图的帧缓冲，所有权移交给视图（由视图在不再绘制后回收），
+         * 用于重连期间保留最后一帧
+         */
+        fun disconnect(keepFramebuffer: Boolean)
         fun sendMouseMove(x: Int, y: Int)
+        /** 按顺序立即发送一组已重采样的轨迹点，points 为 count 个 (x, y) */
+        fun sendMouseMoves(points: IntArray, count: Int)
         fun sendMouseDown(x: Int, y: Int, button: Int)
         fun sendMouseUp(x: Int, y: Int, button: Int)
         fun sendMouseClick(x: Int, y: Int, button: Int)
         fun sendMouseWheel(x: Int, y: Int, delta: Int)
         fun sendKeyEvent(keyCode: Int, down: Boolean): Boolean
         fun sendUnicodeKey(keyCode: Int, down: Boolean): Boolean
+        /** 整段文本按顺序作为 Unicode 键盘事件发送（每个 UTF-16 码元一次按下与抬起） */
+        fun sendUnicodeText(text: String): Boolean
+        /**
+         * 为紧随其后的下一个非移动输入（按键、鼠标按键、滚轮、文本）登记延迟探针。
+         * eventTimeMs 为 MotionEvent/KeyEvent 的事件时间（uptime），(x, y) 为远程坐标，键盘输入传 -1。
+         */
+        fun traceInput(eventTimeMs: Long, x: Int, y: Int)
+        /** 本会话输入到上屏延迟的分段统计 */
+        fun latencySummary(): String
+        /** 是否处于已连接状态 */
+        val isConnected: Boolean
+        /** 帧缓冲占用的像素内存字节数，用于多会话内存预算 */
+        val framebufferBytes: Long
+        /** 把会话绑定到视图（切到前台） */
+        fun attachView(view: RdpSurfaceView)
+        /** 解绑视图并抑制画面输出（转入后台，连接保持） */
+        fun detachView()
+        /** 视图不可见时为 true，可见后为 false（恢复时需整幅刷新画面） */
+        fun setOutputSuppressed(suppressed: Boolean)
+        /** 已连接的会话被服务端或网络结束（非本地 [disconnect]）时在会话线程调用 */
+        var onTerminated: (() -> Unit)?
         val lastError: String?
     }
 }
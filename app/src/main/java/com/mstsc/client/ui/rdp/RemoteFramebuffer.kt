@@ -0,0 +1,168 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.Rect
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * 渲染线程在 [RemoteFramebuffer.lockFront] 期间可读取的帧内容
+ */
+internal class FrontFrame(
+    val width: Int,
+    val height: Int,
+    val bitmap: Bitmap,
+    private val onEndRead: (() -> Unit)? = null
+) {
+    /**
+     * 渲染器读完 [bitmap] 的像素（已上传或已绘制）后调用，之后的绘制与交换不再占用帧缓冲；
+     * 单缓冲帧缓冲借此提前放开 back 锁。不调用时由 [RemoteFramebuffer.unlockFront] 兜底。
+     */
+    fun endRead() {
+        onEndRead?.invoke()
+    }
+}
+
+/**
+ * 双缓冲远程帧缓冲：native 连接线程只写 back，渲染线程只读 front，二者不再读写同一块像素。
+ *
+ * 交接协议（back 锁 → front 锁，front 侧只 tryLock，不会死锁）：
+ * - native 线程 [beginWrite] 取得 back 锁后调用 updateGraphics 写入 back，[endWrite] 记录待交接区域，
+ *   并 tryLock front：拿到则立即把待交接区域从 back 拷到 front；渲染器正在读 front 时不等待，区域留待下次交接；
+ * - 渲染线程 [lockFront] 取得 front 锁后，再短暂持有 back 锁把滞留的待交接区域补拷过来，随后读取 front。
+ *
+ * 因此渲染器读到的 front 永远是完整写完的区域；native 线程最多等待一次脏区域拷贝，不会等待整帧绘制。
+ *
+ * 单缓冲模式（[create] 的 singleBuffer，供 GL 渲染器使用）下没有 front：渲染线程在 [lockFront] 到
+ * [FrontFrame.endRead] 期间持有 back 锁，直接从 back 上传脏区域到纹理。native 线程上不再有 back → front 拷贝，
+ * 代价是渲染器上传期间 native 写入需等待（只等脏区域上传，不等绘制与交换），并省下一张整幅 Bitmap。
+ *
+ * Bitmap 均取自 [BitmapPool]，[recycle] 时归还；回收后 [beginWrite]/[lockFront] 返回 null。
+ */
+internal class RemoteFramebuffer private constructor(
+    private val back: Bitmap,
+    private val front: Bitmap?
+) {
+    val width: Int = back.width
+    val height: Int = back.height
+    val config: Bitmap.Config = back.config
+    /** back 与 front 合计占用的像素内存字节数 */
+    val byteCount: Long = back.allocationByteCount.toLong() + (front?.allocationByteCount?.toLong() ?: 0L)
+
+    private val backLock = ReentrantLock()
+    private val frontLock = ReentrantLock()
+    /** 已写入 back、尚未拷贝到 front 的区域；受 backLock 保护 */
+    private val pending = Rect()
+    private val frontCanvas: Canvas? = front?.let { Canvas(it) }
+    private val copyPaint = Paint().apply { xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC) }
+    private val frame = FrontFrame(width, height, front ?: back, if (front == null) ::endBackRead else null)
+    /** 单缓冲模式下渲染线程是否仍持有 back 锁；仅渲染线程访问 */
+    private var readerHoldsBack = false
+    /** 是否已归还到 BitmapPool；受 frontLock 与 backLock 共同保护 */
+    private var released = false
+
+    /**
+     * native 线程：取得 back 锁并返回供 updateGraphics 写入的 Bitmap，之后必须调用 [endWrite]；
+     * 已回收时返回 null，且无需调用 [endWrite]。
+     */
+    fun beginWrite(): Bitmap? {
+        backLock.lock()
+        if (released) {
+            backLock.unlock()
+            return null
+        }
+        return back
+    }
+
+    /** native 线程：结束写入；updated 为 true 时登记 (x, y, w, h) 并尝试立即交接到 front */
+    fun endWrite(x: Int, y: Int, w: Int, h: Int, updated: Boolean) {
+        try {
+            if (!updated || front == null) return
+            pending.union(x, y, x + w, y + h)
+            if (frontLock.tryLock()) {
+                try {
+                    copyPendingLocked()
+                } finally {
+                    frontLock.unlock()
+                }
+            }
+        } finally {
+            backLock.unlock()
+        }
+    }
+
+    /**
+     * 渲染线程：取得 front 锁（并补齐待交接区域）后返回 front，读取完毕必须调用 [unlockFront]；
+     * 单缓冲模式下返回 back，并持有 back 锁直到 [FrontFrame.endRead] 或 [unlockFront]。已回收时返回 null，且无需调用 [unlockFront]。
+     */
+    fun lockFront(): FrontFrame? {
+        frontLock.lock()
+        if (released) {
+            frontLock.unlock()
+            return null
+        }
+        backLock.lock()
+        if (front == null) {
+            readerHoldsBack = true
+            return frame
+        }
+        try {
+            copyPendingLocked()
+        } finally {
+            backLock.unlock()
+        }
+        return frame
+    }
+
+    fun unlockFront() {
+        endBackRead()
+        frontLock.unlock()
+    }
+
+    private fun endBackRead() {
+        if (!readerHoldsBack) return
+        readerHoldsBack = false
+        backLock.unlock()
+    }
+
+    /** 等待进行中的写入与绘制结束后，把 Bitmap 归还到 BitmapPool（可重复调用） */
+    fun recycle() {
+        frontLock.lock()
+        backLock.lock()
+        try {
+            if (released) return
+            released = true
+            pending.setEmpty()
+            BitmapPool.release(back)
+            front?.let { BitmapPool.release(it) }
+        } finally {
+            backLock.unlock()
+            frontLock.unlock()
+        }
+    }
+
+    /** 调用方需同时持有 back 锁与 front 锁 */
+    private fun copyPendingLocked() {
+        val canvas = frontCanvas ?: return
+        if (pending.isEmpty) return
+        if (pending.intersect(0, 0, width, height)) {
+            canvas.drawBitmap(back, pending, pending, copyPaint)
+        }
+        pending.setEmpty()
+    }
+
+    companion object {
+        /**
+         * @param singleBuffer true 时不分配 front，渲染器在 back 锁内直接读取 back（只应在 GLES 后端下开启：
+         *   软件渲染整幅缩放绘制耗时长，持锁期间会阻塞 native 写入）
+         */
+        fun create(width: Int, height: Int, config: Bitmap.Config, singleBuffer: Boolean = false): RemoteFramebuffer {
+            val back = BitmapPool.acquire(width, height, config)
+            val front = if (singleBuffer) null else BitmapPool.acquire(width, height, config)
+            return RemoteFramebuffer(back, front)
+        }
+    }
+}
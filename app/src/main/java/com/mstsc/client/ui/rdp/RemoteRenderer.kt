@@ -0,0 +1,60 @@
+package com.mstsc.client.ui.rdp
+
+import android.graphics.Rect
+import android.graphics.RectF
+import kotlin.math.ceil
+import kotlin.math.floor
+
+/**
+ * 远程画面渲染器：仅在渲染线程中创建、使用与释放。
+ */
+internal interface RemoteRenderer {
+    /**
+     * 绘制一帧。
+     * @param frame 已加锁的 front 内容（单缓冲帧缓冲下为持锁的 back）
+     * @param damage 帧缓冲坐标下像素发生变化的区域，null 表示像素未变化
+     * @param fullRepaint 布局变化（尺寸、缩放、换 Bitmap），需整屏重绘
+     * @param dst 整幅帧缓冲映射到视图后的区域（视图坐标；本地放大时超出视图，只应处理可见部分）
+     * @return false 表示该渲染器无法处理当前帧缓冲（如超出最大纹理尺寸），调用方应回退到软件渲染
+     */
+    fun drawFrame(
+        frame: FrontFrame,
+        damage: Rect?,
+        fullRepaint: Boolean,
+        dst: RectF,
+        surfaceWidth: Int,
+        surfaceHeight: Int
+    ): Boolean
+
+    /** 帧缓冲已更换（Bitmap 可能被池化复用），下一帧需按全新内容处理 */
+    fun invalidateContent()
+
+    /** 释放与 Surface 绑定的资源（渲染线程退出或切换后端前调用） */
+    fun release()
+}
+
+/**
+ * 帧缓冲中当前落在视图内的区域（帧缓冲坐标，向外取整），渲染器据此只采样/上传可见部分。
+ * @param dst 整幅帧缓冲映射到视图后的区域（本地放大时大于视图）
+ * @return 完全不可见时为空矩形
+ */
+internal fun visibleFramebufferRect(dst: RectF, fbWidth: Int, fbHeight: Int, surfaceWidth: Int, surfaceHeight: Int): Rect {
+    val out = Rect()
+    if (dst.width() <= 0f || dst.height() <= 0f) return out
+    val sx = dst.width() / fbWidth
+    val sy = dst.height() / fbHeight
+    out.set(
+        floor(-dst.left / sx).toInt(),
+        floor(-dst.top / sy).toInt(),
+        ceil((surfaceWidth - dst.left) / sx).toInt(),
+        ceil((surfaceHeight - dst.top) / sy).toInt()
+    )
+    if (!out.intersect(0, 0, fbWidth, fbHeight)) out.setEmpty()
+    return out
+}
+
+/**
+ * 渲染后端：GLES 将桌面保存在纹理中，仅上传脏区域并由 GPU 完成缩放；
+ * SOFTWARE 为 Canvas 软件绘制，作为 GLES 不可用时的回退。
+ */
+enum class RenderBackend { GLES, SOFTWARE }